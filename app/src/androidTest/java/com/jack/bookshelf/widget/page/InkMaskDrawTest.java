@@ -0,0 +1,135 @@
+package com.jack.bookshelf.widget.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextPaint;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * 墨水屏 ALPHA_8 页面与 ARGB_8888 页面的比较
+ * 按 PageLoader 与 NonePageAnim 的方式绘制同一页文字: ALPHA_8 页面清为透明, 显示时以文字颜色绘制在白色背景上
+ * 两种页面显示的结果相同, 记录每页的内存与绘制、显示耗时, 结果在 am instrument 的输出中
+ */
+@RunWith(AndroidJUnit4.class)
+public class InkMaskDrawTest {
+    // MatePad Paper 的屏幕
+    private static final int WIDTH = 1404;
+    private static final int HEIGHT = 1872;
+    private static final int ROUNDS = 50;
+
+    @Test
+    public void inkMaskMatchesArgbPage() {
+        Bitmap argbPage = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Bitmap inkPage = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ALPHA_8);
+        TextPaint paint = newTextPaint();
+        drawPage(argbPage, paint);
+        drawPage(inkPage, paint);
+        Bitmap argbScreen = display(argbPage, false, null);
+        Bitmap inkScreen = display(inkPage, true, null);
+        int maxDiff = 0;
+        for (int y = 0; y < HEIGHT; y += 3) {
+            for (int x = 0; x < WIDTH; x += 3) {
+                int argb = argbScreen.getPixel(x, y);
+                int ink = inkScreen.getPixel(x, y);
+                maxDiff = Math.max(maxDiff, Math.abs(Color.red(argb) - Color.red(ink)));
+                maxDiff = Math.max(maxDiff, Math.abs(Color.green(argb) - Color.green(ink)));
+                maxDiff = Math.max(maxDiff, Math.abs(Color.blue(argb) - Color.blue(ink)));
+            }
+        }
+        // 抗锯齿边缘的舍入误差
+        assertTrue("max diff " + maxDiff, maxDiff <= 2);
+        assertEquals(argbPage.getAllocationByteCount(), inkPage.getAllocationByteCount() * 4);
+    }
+
+    @Test
+    public void compareDrawTime() {
+        TextPaint paint = newTextPaint();
+        Bundle results = new Bundle();
+        for (Bitmap.Config config : new Bitmap.Config[]{Bitmap.Config.ARGB_8888, Bitmap.Config.ALPHA_8}) {
+            Bitmap page = Bitmap.createBitmap(WIDTH, HEIGHT, config);
+            Bitmap screen = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+            boolean inkMask = config == Bitmap.Config.ALPHA_8;
+            // 预热
+            for (int i = 0; i < 5; i++) {
+                drawPage(page, paint);
+                display(page, inkMask, screen);
+            }
+            long drawNanos = 0;
+            long displayNanos = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                drawPage(page, paint);
+                long drawn = SystemClock.elapsedRealtimeNanos();
+                display(page, inkMask, screen);
+                displayNanos += SystemClock.elapsedRealtimeNanos() - drawn;
+                drawNanos += drawn - start;
+            }
+            results.putString(config.name(), "bytes=" + page.getAllocationByteCount()
+                    + " draw=" + drawNanos / ROUNDS / 1000 + "us"
+                    + " display=" + displayNanos / ROUNDS / 1000 + "us");
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static TextPaint newTextPaint() {
+        TextPaint paint = new TextPaint();
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(48);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    /**
+     * 与 PageLoader 相同: 清空页面后逐行绘制文字
+     */
+    private static void drawPage(Bitmap bitmap, TextPaint paint) {
+        Canvas canvas = new Canvas(bitmap);
+        if (bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        } else {
+            canvas.drawColor(Color.WHITE);
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 26; i++) {
+            line.append((char) ('一' + i * 7));
+        }
+        float top = 80;
+        while (top < HEIGHT - 40) {
+            canvas.drawText(line, 0, line.length(), 60, top, paint);
+            top += 72;
+        }
+    }
+
+    /**
+     * 与 NonePageAnim 显示页面相同
+     */
+    private static Bitmap display(Bitmap page, boolean inkMask, Bitmap screen) {
+        if (screen == null) {
+            screen = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        }
+        Canvas canvas = new Canvas(screen);
+        if (inkMask) {
+            Paint inkPaint = new Paint();
+            inkPaint.setColor(Color.BLACK);
+            inkPaint.setAlpha(255);
+            canvas.drawColor(Color.WHITE);
+            canvas.drawBitmap(page, 0, 0, inkPaint);
+        } else {
+            canvas.drawBitmap(page, 0, 0, null);
+        }
+        return screen;
+    }
+}
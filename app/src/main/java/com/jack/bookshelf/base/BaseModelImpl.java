@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 import android.os.Handler;
 import android.os.Looper;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.webkit.CookieManager;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
@@ -12,6 +13,9 @@ import com.jack.bookshelf.DbHelper;
 import com.jack.bookshelf.MApplication;
 import com.jack.bookshelf.bean.CookieBean;
 import com.jack.bookshelf.help.EncodeConverter;
+import com.jack.bookshelf.help.FileHelp;
+import com.jack.bookshelf.help.HostRateLimiter;
+import com.jack.bookshelf.help.HttpCacheHelp;
 import com.jack.bookshelf.help.SSLSocketClient;
 import com.jack.bookshelf.model.analyzeRule.AnalyzeUrl;
 import com.jack.bookshelf.model.impl.IHttpGetApi;
@@ -19,75 +23,125 @@ import com.jack.bookshelf.model.impl.IHttpPostApi;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
+import okhttp3.Cache;
 import okhttp3.ConnectionSpec;
-import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
-import okhttp3.Request;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 
 public class BaseModelImpl {
+    // 以 baseUrl + 编码 为键缓存 Retrofit 与接口代理, 避免每个请求都重新构建
+    private static final LruCache<String, RetrofitHolder> retrofitCache = new LruCache<>(64);
+    // 使用 HTTP/2 出现协议错误的主机, 之后改用 HTTP/1.1
+    private static final Set<String> http1Hosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // 服务器不支持 HTTP/2 时重置流的错误, 与 okhttp 的 StreamResetException 消息相同
+    // 其他错误码 (REFUSED_STREAM, CANCEL 等) 是暂时的, 不改用 HTTP/1.1
+    private static final String[] HTTP2_PROTOCOL_ERRORS = {
+            "stream was reset: PROTOCOL_ERROR", "stream was reset: HTTP_1_1_REQUIRED"};
     private static OkHttpClient httpClient;
+    private static OkHttpClient http1Client;
 
     public static BaseModelImpl getInstance() {
         return new BaseModelImpl();
     }
 
     public Observable<Response<String>> getResponseO(AnalyzeUrl analyzeUrl) {
+        RetrofitHolder holder = getRetrofitHolder(analyzeUrl.getHost(), analyzeUrl.getCharCode(),
+                http1Hosts.contains(analyzeUrl.getHost()));
         switch (analyzeUrl.getUrlMode()) {
             case POST:
                 if (analyzeUrl.getJsonBody() != null) {
-                    return getRetrofitString(analyzeUrl.getHost(), analyzeUrl.getCharCode())
-                            .create(IHttpPostApi.class)
+                    return holder.getPostApi()
                             .postJson(analyzeUrl.getPath(),
                                     analyzeUrl.getPostBody(),
                                     analyzeUrl.getHeaderMap());
                 } else {
-                    return getRetrofitString(analyzeUrl.getHost(), analyzeUrl.getCharCode())
-                            .create(IHttpPostApi.class)
+                    return holder.getPostApi()
                             .postMap(analyzeUrl.getPath(),
                                     analyzeUrl.getQueryMap(),
                                     analyzeUrl.getHeaderMap());
                 }
             case GET:
-                return getRetrofitString(analyzeUrl.getHost(), analyzeUrl.getCharCode())
-                        .create(IHttpGetApi.class)
+                return getWithHttp1Fallback(analyzeUrl, holder, api -> api
                         .getMap(analyzeUrl.getPath(),
                                 analyzeUrl.getQueryMap(),
-                                analyzeUrl.getHeaderMap());
+                                analyzeUrl.getHeaderMap()));
             default:
-                return getRetrofitString(analyzeUrl.getHost(), analyzeUrl.getCharCode())
-                        .create(IHttpGetApi.class)
+                return getWithHttp1Fallback(analyzeUrl, holder, api -> api
                         .get(analyzeUrl.getPath(),
-                                analyzeUrl.getHeaderMap());
+                                analyzeUrl.getHeaderMap()));
         }
     }
 
+    /**
+     * HTTP/2 出现协议错误时改用 HTTP/1.1 重新请求, 并记住该主机
+     * 只用于 GET, POST 不重新发送; 重新请求在同一个 Observable 中, 取消订阅时一同取消
+     */
+    private Observable<Response<String>> getWithHttp1Fallback(AnalyzeUrl analyzeUrl, RetrofitHolder holder, GetCall call) {
+        Observable<Response<String>> observable = call.call(holder.getGetApi());
+        if (holder.http1) return observable;
+        return observable.onErrorResumeNext(throwable -> {
+            if (!isHttp2ProtocolError(throwable)) {
+                return Observable.error(throwable);
+            }
+            http1Hosts.add(analyzeUrl.getHost());
+            return call.call(getRetrofitHolder(analyzeUrl.getHost(), analyzeUrl.getCharCode(), true).getGetApi());
+        });
+    }
+
+    private static boolean isHttp2ProtocolError(Throwable throwable) {
+        if (!(throwable instanceof IOException)) return false;
+        for (String message : HTTP2_PROTOCOL_ERRORS) {
+            if (message.equals(throwable.getMessage())) return true;
+        }
+        return false;
+    }
+
     public Retrofit getRetrofitString(String url) {
-        return new Retrofit.Builder().baseUrl(url)
-                //增加返回值为字符串的支持(以实体类返回)
-                .addConverterFactory(EncodeConverter.create())
-                //增加返回值为Observable<T>的支持
-                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
-                .client(getClient())
-                .build();
+        return getRetrofitHolder(url, null, false).retrofit;
     }
 
     public Retrofit getRetrofitString(String url, String encode) {
-        return new Retrofit.Builder().baseUrl(url)
-                //增加返回值为字符串的支持(以实体类返回)
-                .addConverterFactory(EncodeConverter.create(encode))
-                //增加返回值为Observable<T>的支持
-                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
-                .client(getClient())
-                .build();
+        return getRetrofitHolder(url, encode, false).retrofit;
+    }
+
+    private static RetrofitHolder getRetrofitHolder(String url, String encode, boolean http1) {
+        String key = url + "\n" + encode + (http1 ? "\nhttp1" : "");
+        RetrofitHolder holder = retrofitCache.get(key);
+        if (holder == null) {
+            holder = new RetrofitHolder(new Retrofit.Builder().baseUrl(url)
+                    //增加返回值为字符串的支持(以实体类返回)
+                    .addConverterFactory(EncodeConverter.create(encode))
+                    //增加返回值为Observable<T>的支持
+                    .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+                    .client(http1 ? getHttp1Client() : getClient())
+                    .build(), http1);
+            retrofitCache.put(key, holder);
+        }
+        return holder;
+    }
+
+    /**
+     * Retrofit 缓存的命中率与改用 HTTP/1.1 的主机数, 在书源调试结束时输出
+     */
+    public static String getRetrofitCacheStats() {
+        int hits = retrofitCache.hitCount();
+        int requests = hits + retrofitCache.missCount();
+        return String.format(Locale.ROOT, "Retrofit cache: %d/%d hits (%d%%), HTTP/1.1 hosts: %d",
+                hits, requests, requests == 0 ? 0 : hits * 100 / requests, http1Hosts.size());
     }
 
     synchronized public static OkHttpClient getClient() {
@@ -96,6 +150,7 @@ public class BaseModelImpl {
             specs.add(ConnectionSpec.MODERN_TLS);
             specs.add(ConnectionSpec.COMPATIBLE_TLS);
             specs.add(ConnectionSpec.CLEARTEXT);
+            // 支持 HTTP/2 的服务器通过 ALPN 协商使用 HTTP/2, 同一主机的请求复用一个连接
             httpClient = new OkHttpClient.Builder()
                     .connectTimeout(15, TimeUnit.SECONDS)
                     .writeTimeout(15, TimeUnit.SECONDS)
@@ -106,23 +161,23 @@ public class BaseModelImpl {
                     .followRedirects(true)
                     .followSslRedirects(true)
                     .connectionSpecs(specs)
-                    .protocols(Collections.singletonList(Protocol.HTTP_1_1))
-                    .addInterceptor(getHeaderInterceptor())
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .cache(new Cache(new File(FileHelp.getCachePath(), "http"), HttpCacheHelp.CACHE_SIZE))
+                    .addInterceptor(HostRateLimiter.getInstance())
+                    .addInterceptor(HttpCacheHelp.getHeaderInterceptor())
                     .build();
         }
         return httpClient;
     }
 
-    private static Interceptor getHeaderInterceptor() {
-        return chain -> {
-            Request request = chain.request()
-                    .newBuilder()
-                    .addHeader("Keep-Alive", "300")
-                    .addHeader("Connection", "Keep-Alive")
-                    .addHeader("Cache-Control", "no-cache")
+    synchronized private static OkHttpClient getHttp1Client() {
+        if (http1Client == null) {
+            // 与 httpClient 共用连接池、线程池与缓存
+            http1Client = getClient().newBuilder()
+                    .protocols(Collections.singletonList(Protocol.HTTP_1_1))
                     .build();
-            return chain.proceed(request);
-        };
+        }
+        return http1Client;
     }
 
     protected Observable<Response<String>> setCookie(Response<String> response, String tag) {
@@ -208,6 +263,36 @@ public class BaseModelImpl {
         });
     }
 
+    private interface GetCall {
+        Observable<Response<String>> call(IHttpGetApi api);
+    }
+
+    private static class RetrofitHolder {
+        private final Retrofit retrofit;
+        private final boolean http1;
+        private IHttpGetApi getApi;
+        private IHttpPostApi postApi;
+
+        RetrofitHolder(Retrofit retrofit, boolean http1) {
+            this.retrofit = retrofit;
+            this.http1 = http1;
+        }
+
+        synchronized IHttpGetApi getGetApi() {
+            if (getApi == null) {
+                getApi = retrofit.create(IHttpGetApi.class);
+            }
+            return getApi;
+        }
+
+        synchronized IHttpPostApi getPostApi() {
+            if (postApi == null) {
+                postApi = retrofit.create(IHttpPostApi.class);
+            }
+            return postApi;
+        }
+    }
+
     private static class Web {
         private String content;
         private String js = "document.documentElement.outerHTML";
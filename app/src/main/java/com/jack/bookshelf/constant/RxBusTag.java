@@ -8,6 +8,7 @@ public class RxBusTag {
     public final static String UPDATE_BOOK_PROGRESS = "update_book_progress";
     public final static String UPDATE_READ = "update_read";
     public final static String CHAPTER_CHANGE = "chapter_change";
+    public final static String CHAPTER_LIST_CHANGE = "chapterListChange";
     public final static String MEDIA_BUTTON = "media_button";
     public final static String ALOUD_STATE = "aloud_state";
     public final static String ALOUD_TIMER = "aloud_timer";
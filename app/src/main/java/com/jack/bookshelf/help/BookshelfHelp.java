@@ -392,6 +392,19 @@ public class BookshelfHelp {
         return percent.equals("100.0%") ? "100%" : percent;
     }
 
+    /**
+     * 按全书页码计算进度
+     */
+    public static String getReadProgress(int durPageIndex, int pageAll) {
+        if (pageAll <= 0 || durPageIndex < 0) return "0%";
+        DecimalFormat df = new DecimalFormat("0.0%");
+        String percent = df.format((durPageIndex + 1.0f) / pageAll);
+        if (percent.equals("100.0%") && durPageIndex + 1 != pageAll) {
+            return "99.9%";
+        }
+        return percent.equals("100.0%") ? "100%" : percent;
+    }
+
     public static String formatAuthor(String author) {
         if (author == null) {
             return "";
@@ -0,0 +1,209 @@
+package com.jack.bookshelf.help;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 按主机限制请求
+ * 搜索、下载、刷新书架等各自的线程池共用同一个 OkHttpClient, 在这里统一限制同一主机的并发数与每秒请求数,
+ * 超出时在调用线程上排队等待
+ * 书源可在请求头中设置 Rate-Limit: 并发数/每秒请求数, 例如 2/1, 每秒请求数为 0 时不限速,
+ * 该请求头只用于设置, 不会发送到服务器
+ * 限制在读取磁盘缓存之前, 是否命中缓存要请求后才知道: 命中缓存的请求同样占用并发数, 需要时也会等待令牌,
+ * 返回后归还令牌, 不影响之后的请求; 只读缓存 (only-if-cached) 的请求不受限制
+ */
+public class HostRateLimiter implements Interceptor {
+    public static final String HEADER = "Rate-Limit";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 6;
+    private static final double DEFAULT_PER_SECOND = 10;
+
+    private static final HostRateLimiter instance = new HostRateLimiter();
+    private final Map<String, HostLimit> hostLimits = new ConcurrentHashMap<>();
+
+    private HostRateLimiter() {
+    }
+
+    public static HostRateLimiter getInstance() {
+        return instance;
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        HostLimit hostLimit = getHostLimit(request.url().host());
+        String rateLimit = request.header(HEADER);
+        if (rateLimit != null) {
+            hostLimit.setLimit(rateLimit);
+            request = request.newBuilder().removeHeader(HEADER).build();
+        }
+        if (request.cacheControl().onlyIfCached()) {
+            return chain.proceed(request);
+        }
+        try {
+            hostLimit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.url().host());
+        }
+        try {
+            Response response = chain.proceed(request);
+            if (response.networkResponse() == null) {
+                hostLimit.refund();
+            }
+            return response;
+        } finally {
+            hostLimit.release();
+        }
+    }
+
+    /**
+     * 各主机的请求数、命中缓存数与排队等待时间, 在书源调试结束时输出
+     */
+    public String getStats() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, HostLimit> entry : hostLimits.entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private HostLimit getHostLimit(String host) {
+        HostLimit hostLimit = hostLimits.get(host);
+        if (hostLimit == null) {
+            hostLimit = new HostLimit();
+            HostLimit old = hostLimits.putIfAbsent(host, hostLimit);
+            if (old != null) {
+                hostLimit = old;
+            }
+        }
+        return hostLimit;
+    }
+
+    private static class HostLimit {
+        private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        private double perSecond = DEFAULT_PER_SECOND;
+        private int inFlight;
+        private int waiting;
+        // 令牌桶, 容量为一秒的请求数, 可以为负数, 表示已预约的请求
+        private double tokens = DEFAULT_PER_SECOND;
+        private long refillTime = System.nanoTime();
+        // 统计
+        private long requestCount;
+        private long cacheCount;
+        private long waitCount;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        synchronized void setLimit(String rateLimit) {
+            String[] values = rateLimit.split("/");
+            try {
+                int maxInFlight = Integer.parseInt(values[0].trim());
+                double perSecond = values.length > 1 ? Double.parseDouble(values[1].trim()) : 0;
+                if (maxInFlight <= 0 || perSecond < 0) return;
+                if (maxInFlight > this.maxInFlight) {
+                    notifyAll();
+                }
+                this.maxInFlight = maxInFlight;
+                if (perSecond != this.perSecond) {
+                    refill();
+                    this.perSecond = perSecond;
+                    tokens = Math.min(tokens, Math.max(perSecond, 1));
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        void acquire() throws InterruptedException {
+            long start = System.nanoTime();
+            long delayNanos;
+            synchronized (this) {
+                waiting++;
+                try {
+                    while (inFlight >= maxInFlight) {
+                        wait();
+                    }
+                } finally {
+                    waiting--;
+                }
+                inFlight++;
+                delayNanos = reserve();
+            }
+            try {
+                if (delayNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
+                }
+            } catch (InterruptedException e) {
+                release();
+                throw e;
+            }
+            record(System.nanoTime() - start);
+        }
+
+        synchronized void release() {
+            inFlight--;
+            notify();
+        }
+
+        /**
+         * 没有发送到服务器的请求归还令牌
+         */
+        synchronized void refund() {
+            cacheCount++;
+            if (perSecond > 0) {
+                refill();
+                tokens = Math.min(Math.max(perSecond, 1), tokens + 1);
+            }
+        }
+
+        /**
+         * 取一个令牌, 返回需要等待的时间
+         */
+        private long reserve() {
+            if (perSecond <= 0) return 0;
+            refill();
+            tokens--;
+            return tokens >= 0 ? 0 : (long) (-tokens / perSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (perSecond > 0) {
+                double capacity = Math.max(perSecond, 1);
+                tokens = Math.min(capacity, tokens + (now - refillTime) * perSecond / TimeUnit.SECONDS.toNanos(1));
+            }
+            refillTime = now;
+        }
+
+        private synchronized void record(long waitNanos) {
+            requestCount++;
+            if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                waitCount++;
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+            }
+        }
+
+        @NonNull
+        @Override
+        public synchronized String toString() {
+            return "limit=" + maxInFlight + "/" + perSecond
+                    + " inFlight=" + inFlight
+                    + " queued=" + waiting
+                    + " requests=" + requestCount
+                    + " cached=" + cacheCount
+                    + " waited=" + waitCount
+                    + " avgWaitMs=" + (waitCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / waitCount))
+                    + " maxWaitMs=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jack.bookshelf.help;
+
+import com.jack.bookshelf.bean.BaseChapterBean;
+
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import retrofit2.Response;
+
+/**
+ * 目录页与详情页的 HTTP 磁盘缓存
+ * 这两类请求使用缓存并由 OkHttp 以 ETag/Last-Modified 向服务器校验, 未改变时服务器返回 304, 使用缓存的内容;
+ * 其他请求不使用也不写入缓存
+ */
+public class HttpCacheHelp {
+    // 磁盘缓存大小
+    public static final long CACHE_SIZE = 20 * 1024 * 1024;
+    private static final String CACHE_CONTROL = "Cache-Control";
+    // 每次都向服务器校验
+    private static final String CACHE_REVALIDATE = "max-age=0";
+    private static final String CACHE_BYPASS = "no-cache, no-store";
+
+    /**
+     * 书源或调用方已设置 Cache-Control 时保留, 否则不使用缓存
+     */
+    public static Interceptor getHeaderInterceptor() {
+        return chain -> {
+            Request request = chain.request();
+            if (request.header(CACHE_CONTROL) == null) {
+                request = request.newBuilder()
+                        .header(CACHE_CONTROL, CACHE_BYPASS)
+                        .build();
+            }
+            return chain.proceed(request);
+        };
+    }
+
+    /**
+     * 请求使用磁盘缓存并向服务器校验
+     * 书源的请求头中已设置 Cache-Control 时按书源的设置, 例如设置为 no-cache 可关闭该书源的缓存
+     */
+    public static Map<String, String> revalidateHeaderMap(Map<String, String> headerMap) {
+        if (!headerMap.containsKey(CACHE_CONTROL)) {
+            headerMap.put(CACHE_CONTROL, CACHE_REVALIDATE);
+        }
+        return headerMap;
+    }
+
+    /**
+     * @return 服务器返回 304, 内容来自缓存
+     */
+    public static boolean isNotModified(Response<String> response) {
+        okhttp3.Response networkResponse = response.raw().networkResponse();
+        return networkResponse != null && networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * 目录页返回 304 时, 已保存的目录能否直接使用
+     * 章节数与书籍记录的不一致或来自其他书源时, 保存的目录不是上次解析的结果, 仍需解析
+     */
+    public static boolean canReuseChapterList(List<? extends BaseChapterBean> chapterList, int chapterListSize, String tag) {
+        return !chapterList.isEmpty() && chapterList.size() == chapterListSize
+                && Objects.equals(chapterList.get(0).getTag(), tag);
+    }
+}
@@ -10,9 +10,17 @@ import com.jack.bookshelf.utils.IOUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class TxtChapterRuleManager {
+    // 平均章节长度低于此字数时降低评分
+    private static final int MIN_CHAPTER_LENGTH = 1000;
+    // 已编译的启用规则, 规则修改后清除
+    private static List<Pattern> enabledPatterns;
 
     public static List<TxtChapterRuleBean> getAll() {
         return DbHelper.getDaoSession().getTxtChapterRuleBeanDao().loadAll();
@@ -33,6 +41,93 @@ public class TxtChapterRuleManager {
         return ruleList;
     }
 
+    /**
+     * 已编译的启用规则, 无效的规则被忽略
+     */
+    public static synchronized List<Pattern> enabledPatternList() {
+        if (enabledPatterns == null) {
+            List<Pattern> patterns = new ArrayList<>();
+            for (String rule : enabledRuleList()) {
+                try {
+                    patterns.add(Pattern.compile(rule, Pattern.MULTILINE));
+                } catch (PatternSyntaxException ignored) {
+                    // 无效的规则不参与分章
+                }
+            }
+            enabledPatterns = Collections.unmodifiableList(patterns);
+        }
+        return enabledPatterns;
+    }
+
+    private static synchronized void clearPatternCache() {
+        enabledPatterns = null;
+    }
+
+    /**
+     * 逐行遍历一次样本, 每行依次用各规则匹配
+     * 合成一个 (?:规则1)|(?:规则2)... 的正则并不更快, 回溯引擎在每个位置仍要依次尝试各规则
+     * 按匹配数与章节间隔的均匀程度评分, 平均间隔过短的规则降低评分
+     *
+     * @return 得分最高的规则, 得分相同时取靠前的规则, 都不匹配时为 null
+     */
+    public static Pattern selectPattern(String sample, List<Pattern> patterns) {
+        int size = patterns.size();
+        Matcher[] matchers = new Matcher[size];
+        int[] counts = new int[size];
+        int[] lastStarts = new int[size];
+        double[] gapSums = new double[size];
+        double[] gapSquareSums = new double[size];
+        for (int i = 0; i < size; i++) {
+            matchers[i] = patterns.get(i).matcher(sample);
+            matchers[i].useTransparentBounds(true);
+            matchers[i].useAnchoringBounds(false);
+        }
+        int lineStart = 0;
+        int length = sample.length();
+        while (lineStart < length) {
+            int lineEnd = sample.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = length;
+            if (lineEnd > lineStart) {
+                for (int i = 0; i < size; i++) {
+                    Matcher matcher = matchers[i].region(lineStart, lineEnd);
+                    if (!matcher.find()) continue;
+                    if (counts[i] > 0) {
+                        int gap = matcher.start() - lastStarts[i];
+                        gapSums[i] += gap;
+                        gapSquareSums[i] += (double) gap * gap;
+                    }
+                    lastStarts[i] = matcher.start();
+                    counts[i]++;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        Pattern best = null;
+        double bestScore = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] == 0) continue;
+            double score = counts[i];
+            if (counts[i] > 1) {
+                int gapCount = counts[i] - 1;
+                double mean = gapSums[i] / gapCount;
+                double variance = Math.max(0, gapSquareSums[i] / gapCount - mean * mean);
+                // 间隔越均匀越可能是章节名
+                score /= 1 + Math.sqrt(variance) / Math.max(1, mean);
+                if (mean < MIN_CHAPTER_LENGTH) {
+                    double ratio = mean / MIN_CHAPTER_LENGTH;
+                    score *= ratio * ratio;
+                }
+            } else {
+                score /= 2;
+            }
+            if (best == null || score > bestScore) {
+                best = patterns.get(i);
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
     public static List<TxtChapterRuleBean> getDefault() {
         String json = null;
         try {
@@ -45,6 +140,7 @@ public class TxtChapterRuleManager {
         List<TxtChapterRuleBean> ruleBeanList = GsonUtils.parseJArray(json, TxtChapterRuleBean.class);
         if (ruleBeanList != null) {
             DbHelper.getDaoSession().getTxtChapterRuleBeanDao().insertOrReplaceInTx(ruleBeanList);
+            clearPatternCache();
             return ruleBeanList;
         }
         return new ArrayList<>();
@@ -52,6 +148,7 @@ public class TxtChapterRuleManager {
 
     public static void del(TxtChapterRuleBean txtChapterRuleBean) {
         DbHelper.getDaoSession().getTxtChapterRuleBeanDao().delete(txtChapterRuleBean);
+        clearPatternCache();
     }
 
     public static void del(List<TxtChapterRuleBean> ruleBeanList) {
@@ -65,9 +162,11 @@ public class TxtChapterRuleManager {
             txtChapterRuleBean.setSerialNumber((int) DbHelper.getDaoSession().getTxtChapterRuleBeanDao().queryBuilder().count());
         }
         DbHelper.getDaoSession().getTxtChapterRuleBeanDao().insertOrReplace(txtChapterRuleBean);
+        clearPatternCache();
     }
 
     public static void save(List<TxtChapterRuleBean> txtChapterRuleBeans) {
         DbHelper.getDaoSession().getTxtChapterRuleBeanDao().insertOrReplaceInTx(txtChapterRuleBeans);
+        clearPatternCache();
     }
 }
@@ -18,6 +18,7 @@ import com.jack.bookshelf.bean.SearchBookBean;
 import com.jack.bookshelf.constant.RxBusTag;
 import com.jack.bookshelf.help.BookshelfHelp;
 import com.jack.bookshelf.model.content.WebBook;
+import com.jack.bookshelf.utils.SingleFlight;
 import com.jack.bookshelf.utils.StringUtils;
 
 import java.util.List;
@@ -26,6 +27,8 @@ import java.util.concurrent.TimeUnit;
 import io.reactivex.Observable;
 
 public class WebBookModel {
+    // 正在进行的正文请求, 同一章节同时请求时共用一次下载与解析
+    private static final SingleFlight<BookContentBean> contentRequests = new SingleFlight<>();
 
     public static WebBookModel getInstance() {
         return new WebBookModel();
@@ -54,12 +57,22 @@ public class WebBookModel {
 
     /**
      * 章节缓存
+     * 以章节地址为键合并同时进行的请求, 阅读预加载、离线下载与 Web 接口请求同一章节时只下载、解析和保存一次
      */
     public Observable<BookContentBean> getBookContent(BookShelfBean bookShelfBean, BaseChapterBean chapterBean, BaseChapterBean nextChapterBean) {
-        return WebBook.getInstance(chapterBean.getTag())
+        String key = chapterBean.getNoteUrl() + "\n" + chapterBean.getDurChapterIndex() + "\n" + chapterBean.getDurChapterUrl()
+                + "\n" + (nextChapterBean == null ? "" : nextChapterBean.getDurChapterUrl());
+        return contentRequests.get(key, () -> WebBook.getInstance(chapterBean.getTag())
                 .getBookContent(chapterBean, nextChapterBean, bookShelfBean)
                 .flatMap((bookContentBean -> saveContent(bookShelfBean.getBookInfoBean(), chapterBean, bookContentBean)))
-                .timeout(TIME_OUT, TimeUnit.SECONDS);
+                .timeout(TIME_OUT, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 正文请求合并的次数, 在书源调试结束时输出
+     */
+    public static String getContentRequestStats() {
+        return "Content requests: " + contentRequests;
     }
 
     /**
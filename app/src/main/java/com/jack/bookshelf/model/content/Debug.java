@@ -7,12 +7,14 @@ import androidx.annotation.NonNull;
 
 import com.hwangjr.rxbus.RxBus;
 import com.jack.bookshelf.R;
+import com.jack.bookshelf.base.BaseModelImpl;
 import com.jack.bookshelf.bean.BookChapterBean;
 import com.jack.bookshelf.bean.BookContentBean;
 import com.jack.bookshelf.bean.BookShelfBean;
 import com.jack.bookshelf.bean.SearchBookBean;
 import com.jack.bookshelf.constant.RxBusTag;
 import com.jack.bookshelf.help.BookshelfHelp;
+import com.jack.bookshelf.help.HostRateLimiter;
 import com.jack.bookshelf.model.UpLastChapterModel;
 import com.jack.bookshelf.model.WebBookModel;
 import com.jack.bookshelf.utils.NetworkUtils;
@@ -255,6 +257,10 @@ public class Debug {
     }
 
     private void finish() {
+        // 网络请求的统计
+        printLog(String.format("%s %s", getDoTime(), BaseModelImpl.getRetrofitCacheStats()));
+        printLog(String.format("%s %s", getDoTime(), HostRateLimiter.getInstance().getStats().trim()));
+        printLog(String.format("%s %s", getDoTime(), WebBookModel.getContentRequestStats()));
         RxBus.get().post(RxBusTag.PRINT_DEBUG_LOG, "finish");
     }
 
@@ -14,6 +14,8 @@ import com.jack.bookshelf.bean.BookContentBean;
 import com.jack.bookshelf.bean.BookShelfBean;
 import com.jack.bookshelf.bean.BookSourceBean;
 import com.jack.bookshelf.bean.SearchBookBean;
+import com.jack.bookshelf.help.BookshelfHelp;
+import com.jack.bookshelf.help.HttpCacheHelp;
 import com.jack.bookshelf.help.JsExtensions;
 import com.jack.bookshelf.model.BookSourceManager;
 import com.jack.bookshelf.model.analyzeRule.AnalyzeUrl;
@@ -121,7 +123,7 @@ public class WebBook extends BaseModelImpl implements JsExtensions {
         try {
             AnalyzeUrl analyzeUrl = new AnalyzeUrl(
                     bookShelfBean.getNoteUrl(), tag, bookSourceBean,
-                    bookSourceBean.getHeaderMap(true)
+                    HttpCacheHelp.revalidateHeaderMap(bookSourceBean.getHeaderMap(true))
             );
             return getResponseO(analyzeUrl)
                     .flatMap(response -> setCookie(response, tag))
@@ -147,17 +149,38 @@ public class WebBook extends BaseModelImpl implements JsExtensions {
             AnalyzeUrl analyzeUrl = new AnalyzeUrl(
                     bookShelfBean.getBookInfoBean().getChapterUrl(),
                     bookShelfBean.getNoteUrl(), bookSourceBean,
-                    bookSourceBean.getHeaderMap(true)
+                    HttpCacheHelp.revalidateHeaderMap(bookSourceBean.getHeaderMap(true))
             );
             return getResponseO(analyzeUrl)
                     .flatMap(response -> setCookie(response, tag))
                     .flatMap(stringResponse -> checkLogin(stringResponse, bookShelfBean.getBookInfoBean().getChapterUrl(), bookShelfBean.getNoteUrl()))
-                    .flatMap(response -> bookChapterList.analyzeChapterList(response.body(), bookShelfBean, headerMap));
+                    .flatMap(response -> {
+                        List<BookChapterBean> chapterList = getNotModifiedChapterList(response, bookShelfBean);
+                        if (chapterList != null) {
+                            return Observable.just(chapterList);
+                        }
+                        return bookChapterList.analyzeChapterList(response.body(), bookShelfBean, headerMap);
+                    });
         } catch (Exception e) {
             return Observable.error(new Throwable("Url" + StringUtils.getString(R.string.error) + ":" + bookShelfBean.getBookInfoBean().getChapterUrl()));
         }
     }
 
+    /**
+     * 目录页未改变时使用已保存的目录, 不再解析
+     * 目录有下一页时只校验了第一页, 仍需解析
+     */
+    private List<BookChapterBean> getNotModifiedChapterList(Response<String> response, BookShelfBean bookShelfBean) {
+        if (!HttpCacheHelp.isNotModified(response) || !isEmpty(bookSourceBean.getRuleChapterUrlNext())) {
+            return null;
+        }
+        List<BookChapterBean> chapterList = BookshelfHelp.getChapterList(bookShelfBean.getNoteUrl());
+        if (!HttpCacheHelp.canReuseChapterList(chapterList, bookShelfBean.getChapterListSize(), tag)) {
+            return null;
+        }
+        return chapterList;
+    }
+
     /**
      * 获取正文
      */
@@ -352,6 +352,25 @@ public class ReadBookPresenter extends BasePresenterImpl<ReadBookContract.View>
     public void setChapterList(List<BookChapterBean> chapterList) {
         this.chapterBeanList = chapterList;
         AsyncTask.execute(() -> DbHelper.getDaoSession().getBookChapterBeanDao().insertOrReplaceInTx(chapterList));
+        postChapterList(chapterList);
+    }
+
+    /**
+     * 只更新目录, 不保存
+     */
+    @Override
+    public void upChapterList(List<BookChapterBean> chapterList) {
+        this.chapterBeanList = chapterList;
+        postChapterList(chapterList);
+    }
+
+    /**
+     * 通知已打开的目录页
+     */
+    private void postChapterList(List<BookChapterBean> chapterList) {
+        if (bookShelf != null) {
+            RxBus.get().post(RxBusTag.CHAPTER_LIST_CHANGE, new TwoDataBean<>(bookShelf.getNoteUrl(), chapterList));
+        }
     }
 
     @Override
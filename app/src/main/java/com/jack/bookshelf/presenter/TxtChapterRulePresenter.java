@@ -9,7 +9,6 @@ import androidx.documentfile.provider.DocumentFile;
 import com.google.android.material.snackbar.Snackbar;
 import com.hwangjr.rxbus.RxBus;
 import com.jack.basemvplib.BasePresenterImpl;
-import com.jack.bookshelf.DbHelper;
 import com.jack.bookshelf.R;
 import com.jack.bookshelf.base.observer.MyObserver;
 import com.jack.bookshelf.bean.TxtChapterRuleBean;
@@ -47,7 +46,7 @@ public class TxtChapterRulePresenter extends BasePresenterImpl<TxtChapterRuleCon
                 i++;
                 ruleBean.setSerialNumber(i + 1);
             }
-            DbHelper.getDaoSession().getTxtChapterRuleBeanDao().insertOrReplaceInTx(txtChapterRuleBeans);
+            TxtChapterRuleManager.save(txtChapterRuleBeans);
             e.onNext(true);
             e.onComplete();
         }).subscribeOn(Schedulers.io())
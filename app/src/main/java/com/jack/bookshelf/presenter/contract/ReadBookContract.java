@@ -69,6 +69,8 @@ public interface ReadBookContract {
 
         void setChapterList(List<BookChapterBean> chapterList);
 
+        void upChapterList(List<BookChapterBean> chapterList);
+
         void saveBook();
 
         void saveProgress();
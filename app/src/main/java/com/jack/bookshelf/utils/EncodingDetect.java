@@ -1,18 +1,26 @@
 package com.jack.bookshelf.utils;
 
-import static android.text.TextUtils.isEmpty;
+import static com.jack.bookshelf.utils.Encoding.CP949;
+import static com.jack.bookshelf.utils.Encoding.EUC_KR;
+import static com.jack.bookshelf.utils.Encoding.GB18030;
+import static com.jack.bookshelf.utils.Encoding.GB2312;
+import static com.jack.bookshelf.utils.Encoding.GBK;
+import static com.jack.bookshelf.utils.Encoding.OTHER;
+import static com.jack.bookshelf.utils.Encoding.UNICODE;
+import static com.jack.bookshelf.utils.Encoding.UTF8;
+import static com.jack.bookshelf.utils.Encoding.javaname;
 
 import androidx.annotation.NonNull;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * <Detect encoding .> Copyright (C) <2009> <Fluck,ACC http://androidos.cc/dev>
@@ -35,92 +43,329 @@ import java.net.URL;
  * @since Create on 2010-01-27 11:19:00
  */
 public class EncodingDetect {
+    // 检测文件编码时默认最多读取的字节数
+    public static final int DEFAULT_WINDOW = 64 * 1024;
+    // 首次读取的字节数, 之后每次加倍
+    private static final int FIRST_CHUNK = 4 * 1024;
+    // 非 ASCII 字节达到此数量后才允许提前结束
+    private static final int MIN_HIGH_BYTES = 256;
+    // 领先其他编码族的分数
+    private static final int DECISIVE_MARGIN = 20;
+    // 查找网页编码声明时最多扫描的字节数
+    private static final int HTML_SCAN_LIMIT = 8 * 1024;
+
+    private static final BytesEncodingDetect DETECTOR = new BytesEncodingDetect();
+    // 文件编码缓存, 按最近使用保留 FILE_CACHE_SIZE 个, 不依赖 Android 以便在 JVM 上测试
+    private static final int FILE_CACHE_SIZE = 32;
+    private static final Map<String, String> FILE_CACHE = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > FILE_CACHE_SIZE;
+        }
+    };
 
+    /**
+     * 网页的编码
+     * 只在前 HTML_SCAN_LIMIT 字节中按字节查找 BOM、XML 声明与 meta 标签中的 charset, 不解析整个网页,
+     * 找不到时按内容统计判断
+     */
     public static String getEncodeInHtml(@NonNull byte[] bytes) {
-        try {
-            String charsetStr = "UTF-8";
-            Document doc = Jsoup.parse(new String(bytes, charsetStr));
-            int a = doc.childNode(0).toString().indexOf("encoding");
-            if (a > 0) {
-                String e = doc.childNode(0).toString().substring(a);
-                int b = e.indexOf('"');
-                int c = e.indexOf('"', b + 1);
-                return e.substring(b + 1, c);
+        String charset = bytes.length >= 2 ? getBomEncode(bytes) : null;
+        if (charset == null) {
+            charset = scanHtml(bytes, Math.min(bytes.length, HTML_SCAN_LIMIT));
+        }
+        if (charset != null) return charset;
+        charset = getJavaEncode(bytes);
+        String supported = toSupportedCharset(charset);
+        return supported != null ? supported : charset;
+    }
+
+    private static String scanHtml(byte[] bytes, int limit) {
+        if (startsWithIgnoreCase(bytes, 0, limit, "<?xml")) {
+            int end = indexOf(bytes, 5, limit, "?>");
+            String charset = getAttribute(bytes, 5, end < 0 ? limit : end, "encoding");
+            charset = toSupportedCharset(charset);
+            if (charset != null) return charset;
+        }
+        int i = 0;
+        while (i < limit) {
+            if (bytes[i] != '<') {
+                i++;
+            } else if (startsWithIgnoreCase(bytes, i, limit, "<!--")) {
+                int end = indexOf(bytes, i + 4, limit, "-->");
+                if (end < 0) return null;
+                i = end + 3;
+            } else if (isTagStart(bytes, i, limit, "<meta")) {
+                int end = indexOf(bytes, i + 5, limit, ">");
+                if (end < 0) end = limit;
+                String charset = getMetaCharset(bytes, i + 5, end);
+                if (charset != null) return charset;
+                i = end + 1;
+            } else if (isTagStart(bytes, i, limit, "<script") || isTagStart(bytes, i, limit, "<style")) {
+                // 脚本与样式中可能有 meta 样式的字符串
+                String close = bytes[i + 2] == 'c' || bytes[i + 2] == 'C' ? "</script" : "</style";
+                int end = indexOfIgnoreCase(bytes, i + 6, limit, close);
+                if (end < 0) return null;
+                i = end + close.length();
+            } else if (isTagStart(bytes, i, limit, "<body")) {
+                return null;
+            } else {
+                int end = indexOf(bytes, i + 1, limit, ">");
+                if (end < 0) return null;
+                i = end + 1;
             }
-            Elements metaTags = doc.getElementsByTag("meta");
-            for (Element metaTag : metaTags) {
-                String content = metaTag.attr("content");
-                String http_equiv = metaTag.attr("http-equiv");
-                charsetStr = metaTag.attr("charset");
-                if (!charsetStr.isEmpty()) {
-                    if (!isEmpty(charsetStr)) {
-                        return charsetStr;
-                    }
-                }
-                if (http_equiv.equalsIgnoreCase("content-type")) {
-                    if (content.toLowerCase().contains("charset")) {
-                        charsetStr = content.substring(content.toLowerCase().indexOf("charset") + "charset=".length());
-                    } else {
-                        charsetStr = content.substring(content.toLowerCase().indexOf(";") + 1);
-                    }
-                    if (!isEmpty(charsetStr)) {
-                        return charsetStr;
-                    }
-                }
+        }
+        return null;
+    }
+
+    /**
+     * meta 的 charset 属性, 或 http-equiv 为 Content-Type 时 content 中的 charset
+     */
+    private static String getMetaCharset(byte[] bytes, int start, int end) {
+        String charset = toSupportedCharset(getAttribute(bytes, start, end, "charset"));
+        if (charset != null) return charset;
+        String httpEquiv = getAttribute(bytes, start, end, "http-equiv");
+        if (!"content-type".equalsIgnoreCase(httpEquiv)) return null;
+        String content = getAttribute(bytes, start, end, "content");
+        if (content == null) return null;
+        int index = content.toLowerCase().indexOf("charset");
+        if (index < 0) return null;
+        String value = content.substring(index + "charset".length()).trim();
+        if (!value.startsWith("=")) return null;
+        value = value.substring(1).trim();
+        int stop = 0;
+        while (stop < value.length() && value.charAt(stop) != ';' && !Character.isWhitespace(value.charAt(stop))) {
+            stop++;
+        }
+        return toSupportedCharset(value.substring(0, stop));
+    }
+
+    /**
+     * 读取 [start, end) 范围内的属性值, 属性名不区分大小写
+     */
+    private static String getAttribute(byte[] bytes, int start, int end, String name) {
+        int i = start;
+        while (i < end) {
+            while (i < end && (isSpace(bytes[i]) || bytes[i] == '/')) i++;
+            int nameStart = i;
+            while (i < end && bytes[i] != '=' && !isSpace(bytes[i]) && bytes[i] != '/') i++;
+            int nameEnd = i;
+            while (i < end && isSpace(bytes[i])) i++;
+            if (i >= end || bytes[i] != '=') {
+                if (nameEnd == nameStart) i++;
+                continue;
+            }
+            i++;
+            while (i < end && isSpace(bytes[i])) i++;
+            int valueStart, valueEnd;
+            if (i < end && (bytes[i] == '"' || bytes[i] == '\'')) {
+                byte quote = bytes[i];
+                valueStart = ++i;
+                while (i < end && bytes[i] != quote) i++;
+                valueEnd = i++;
+            } else {
+                valueStart = i;
+                while (i < end && !isSpace(bytes[i])) i++;
+                valueEnd = i;
+            }
+            if (nameEnd - nameStart == name.length() && startsWithIgnoreCase(bytes, nameStart, nameEnd, name)) {
+                return new String(bytes, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1).trim();
             }
-        } catch (Exception ignored) {
         }
-        return getJavaEncode(bytes);
+        return null;
+    }
+
+    /**
+     * 按浏览器的习惯修正声明的编码, 不支持时返回 null
+     */
+    private static String toSupportedCharset(String charset) {
+        if (charset == null || charset.isEmpty()) return null;
+        String name = charset.trim();
+        if (name.equalsIgnoreCase("gb2312") || name.equalsIgnoreCase("x-gbk")) {
+            // 声明为 GB2312 的网页常含有扩展汉字
+            return javaname[GBK];
+        }
+        if (name.toLowerCase().startsWith("utf-16")) {
+            // 能按字节读到声明, 实际不是 UTF-16
+            return javaname[UTF8];
+        }
+        try {
+            return Charset.isSupported(name) ? name : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isTagStart(byte[] bytes, int start, int limit, String tag) {
+        if (!startsWithIgnoreCase(bytes, start, limit, tag)) return false;
+        int next = start + tag.length();
+        return next < limit && (isSpace(bytes[next]) || bytes[next] == '/' || bytes[next] == '>');
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] bytes, int start, int limit, String prefix) {
+        if (limit - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            int b = bytes[start + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int start, int limit, String target) {
+        for (int i = start; i <= limit - target.length(); i++) {
+            if (bytes[i] == target.charAt(0) && startsWithIgnoreCase(bytes, i, limit, target)) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(byte[] bytes, int start, int limit, String target) {
+        for (int i = start; i <= limit - target.length(); i++) {
+            if (startsWithIgnoreCase(bytes, i, limit, target)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
     }
 
     public static String getJavaEncode(@NonNull byte[] bytes) {
         int len = bytes.length > 2000 ? 2000 : bytes.length;
         byte[] cBytes = new byte[len];
         System.arraycopy(bytes, 0, cBytes, 0, len);
-        BytesEncodingDetect bytesEncodingDetect = new BytesEncodingDetect();
-        String code = BytesEncodingDetect.javaname[bytesEncodingDetect.detectEncoding(cBytes)];
-        // UTF-16LE 特殊处理
-        if ("Unicode".equals(code)) {
-            if (cBytes[0] == -1) {
-                code = "UTF-16LE";
-            }
-        }
-        return code;
+        return getJavaName(DETECTOR.detectEncoding(cBytes), cBytes);
     }
 
     /**
      * 得到文件的编码
      */
     public static String getJavaEncode(@NonNull String filePath) {
-        BytesEncodingDetect s = new BytesEncodingDetect();
-        String fileCode = BytesEncodingDetect.javaname[s
-                .detectEncoding(new File(filePath))];
+        return getJavaEncode(new File(filePath));
+    }
 
-        // UTF-16LE 特殊处理
-        if ("Unicode".equals(fileCode)) {
-            byte[] tempByte = BytesEncodingDetect.getFileBytes(new File(
-                    filePath));
-            if (tempByte[0] == -1) {
-                fileCode = "UTF-16LE";
-            }
+    /**
+     * 得到文件的编码
+     */
+    public static String getJavaEncode(@NonNull File file) {
+        return getJavaEncode(file, DEFAULT_WINDOW);
+    }
+
+    /**
+     * 得到文件的编码, 结果按 文件路径 + 大小 + 修改时间 缓存
+     *
+     * @param window 最多读取的字节数
+     */
+    public static String getJavaEncode(@NonNull File file, int window) {
+        String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" + window;
+        String fileCode;
+        synchronized (FILE_CACHE) {
+            fileCode = FILE_CACHE.get(key);
+        }
+        if (fileCode != null) return fileCode;
+        try (InputStream in = new FileInputStream(file)) {
+            fileCode = detect(in, (int) Math.min(window, file.length()));
+        } catch (IOException e) {
+            return getJavaName(OTHER, new byte[0]);
+        }
+        synchronized (FILE_CACHE) {
+            FILE_CACHE.put(key, fileCode);
         }
         return fileCode;
     }
 
     /**
-     * 得到文件的编码
+     * 从首个分块开始逐次加倍读取, 每次只统计新读取的字节,
+     * 非 ASCII 字节足够多且某一编码族明显领先时提前结束, 否则读满窗口后按得分最高的编码返回
      */
-    public static String getJavaEncode(@NonNull File file) {
-        BytesEncodingDetect s = new BytesEncodingDetect();
-        String fileCode = BytesEncodingDetect.javaname[s.detectEncoding(file)];
+    private static String detect(InputStream in, int window) throws IOException {
+        byte[] buffer = new byte[window];
+        BytesEncodingDetect.Scores scores = new BytesEncodingDetect.Scores();
+        int length = 0, highBytes = 0;
+        int target = Math.min(FIRST_CHUNK, window);
+        while (true) {
+            int read = readFully(in, buffer, length, target - length);
+            for (int i = length; i < length + read; i++) {
+                if (buffer[i] < 0) highBytes++;
+            }
+            if (length == 0 && read >= 2) {
+                String bomCode = getBomEncode(buffer);
+                if (bomCode != null) return bomCode;
+            }
+            length += read;
+            boolean end = length < target || length == window;
+            scores.feed(buffer, length, end);
+            if (end || highBytes >= MIN_HIGH_BYTES) {
+                int[] result = scores.get();
+                int guess = DETECTOR.detectEncoding(result);
+                if (end) {
+                    return getJavaName(guess, buffer);
+                }
+                if (isDecisive(result, guess)) {
+                    // 未读部分可能出现扩展汉字, GB2312 提前结束时用其超集 GBK
+                    return getJavaName(guess == GB2312 ? GBK : guess, buffer);
+                }
+            }
+            target = Math.min(target * 2, window);
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    private static String getBomEncode(byte[] bytes) {
+        if (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE) {
+            return "UTF-16LE";
+        }
+        if (bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF) {
+            return javaname[UNICODE];
+        }
+        if (bytes.length > 2 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            return javaname[UTF8];
+        }
+        return null;
+    }
+
+    /**
+     * 领先者得分有效且比其他编码族的最高分高出 DECISIVE_MARGIN
+     */
+    private static boolean isDecisive(int[] scores, int guess) {
+        if (guess == OTHER || scores[guess] <= 50) return false;
+        int family = getFamily(guess);
+        int runnerUp = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (getFamily(i) != family) {
+                runnerUp = Math.max(runnerUp, scores[i]);
+            }
+        }
+        return scores[guess] - runnerUp >= DECISIVE_MARGIN;
+    }
+
+    /**
+     * 同一字符集的不同超集得分接近, 比较领先幅度时视为一族
+     */
+    private static int getFamily(int encoding) {
+        if (encoding == GBK || encoding == GB18030) return GB2312;
+        if (encoding == CP949) return EUC_KR;
+        return encoding;
+    }
+
+    private static String getJavaName(int encoding, byte[] bytes) {
+        String code = javaname[encoding];
         // UTF-16LE 特殊处理
-        if ("Unicode".equals(fileCode)) {
-            byte[] tempByte = BytesEncodingDetect.getFileBytes(file);
-            if (tempByte[0] == -1) {
-                fileCode = "UTF-16LE";
+        if ("Unicode".equals(code)) {
+            if (bytes.length > 0 && bytes[0] == -1) {
+                code = "UTF-16LE";
             }
         }
-        return fileCode;
+        return code;
     }
 
 }
@@ -128,19 +373,25 @@ public class EncodingDetect {
 class BytesEncodingDetect extends Encoding {
     // Frequency tables to hold the GB, Big5, and EUC-TW character
     // frequencies
-    private final int[][] GBFreq;
+    // 频率表只读, 所有实例共用, 类加载时初始化一次
+    private static final int[][] GBFreq = new int[94][94];
 
-    private final int[][] GBKFreq;
+    private static final int[][] GBKFreq = new int[126][191];
 
-    private final int[][] Big5Freq;
+    private static final int[][] Big5Freq = new int[94][158];
 
-    private final int[][] Big5PFreq;
+    private static final int[][] Big5PFreq = new int[126][191];
 
-    private final int[][] EUC_TWFreq;
+    private static final int[][] EUC_TWFreq = new int[94][94];
 
-    private final int[][] KRFreq;
+    private static final int[][] KRFreq = new int[94][94];
 
-    private final int[][] JPFreq;
+    private static final int[][] JPFreq = new int[94][94];
+
+    static {
+        // Initialize the Frequency Table for GB, GBK, Big5, EUC-TW, KR, JP
+        initialize_frequencies();
+    }
 
     // int UnicodeFreq[94][128];
     // public static String[] nicename;
@@ -150,15 +401,6 @@ class BytesEncodingDetect extends Encoding {
     public BytesEncodingDetect() {
         super();
         debug = false;
-        GBFreq = new int[94][94];
-        GBKFreq = new int[126][191];
-        Big5Freq = new int[94][158];
-        Big5PFreq = new int[126][191];
-        EUC_TWFreq = new int[94][94];
-        KRFreq = new int[94][94];
-        JPFreq = new int[94][94];
-        // Initialize the Frequency Table for GB, GBK, Big5, EUC-TW, KR, JP
-        initialize_frequencies();
     }
 
     /**
@@ -223,33 +465,24 @@ class BytesEncodingDetect extends Encoding {
      * highest probability is returned.
      */
     public int detectEncoding(byte[] rawtext) {
-        int[] scores;
+        return detectEncoding(getScores(rawtext));
+    }
+
+    /**
+     * 计算各编码的得分, 0 - 100
+     */
+    int[] getScores(byte[] rawtext) {
+        Scores scores = new Scores();
+        scores.feed(rawtext, rawtext.length, true);
+        return scores.get();
+    }
+
+    /**
+     * 选出得分最高的编码
+     */
+    int detectEncoding(int[] scores) {
         int index, maxscore = 0;
         int encoding_guess = OTHER;
-        scores = new int[TOTALTYPES];
-        // Assign Scores
-        scores[GB2312] = gb2312_probability(rawtext);
-        scores[GBK] = gbk_probability(rawtext);
-        scores[GB18030] = gb18030_probability(rawtext);
-        scores[HZ] = hz_probability(rawtext);
-        scores[BIG5] = big5_probability(rawtext);
-        scores[CNS11643] = euc_tw_probability(rawtext);
-        scores[ISO2022CN] = iso_2022_cn_probability(rawtext);
-        scores[UTF8] = utf8_probability(rawtext);
-        scores[UNICODE] = utf16_probability(rawtext);
-        scores[EUC_KR] = euc_kr_probability(rawtext);
-        scores[CP949] = cp949_probability(rawtext);
-        scores[JOHAB] = 0;
-        scores[ISO2022KR] = iso_2022_kr_probability(rawtext);
-        scores[ASCII] = ascii_probability(rawtext);
-        scores[SJIS] = sjis_probability(rawtext);
-        scores[EUC_JP] = euc_jp_probability(rawtext);
-        scores[ISO2022JP] = iso_2022_jp_probability(rawtext);
-        scores[UNICODET] = 0;
-        scores[UNICODES] = 0;
-        scores[ISO2022CN_GB] = 0;
-        scores[ISO2022CN_CNS] = 0;
-        scores[OTHER] = 0;
         // Tabulate Scores
         for (index = 0; index < TOTALTYPES; index++) {
             if (debug)
@@ -267,209 +500,256 @@ class BytesEncodingDetect extends Encoding {
         return encoding_guess;
     }
 
-    /*
-     * Function: gb2312_probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses GB-2312
-     * encoding
+    /**
+     * 逐段统计各编码的得分
+     * 每次输入的字节数组只在末尾增加了新读取的字节, 各编码从上次停下的位置继续统计, 已统计的字节不会重复计算;
+     * 未读完时末尾 LOOKAHEAD 字节可能是半个字符, 留到下次统计. 全部输入后的得分与一次统计整个数组相同
      */
-    private int gb2312_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, gbchars = 1;
-        long gbfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            // System.err.println(rawtext[i]);
-            if (rawtext[i] >= 0) {
-                // asciichars++;
-            } else {
-                dbchars++;
-                if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xF7
-                        && (byte) 0xA1 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xFE) {
-                    gbchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0xA1;
-                    column = rawtext[i + 1] + 256 - 0xA1;
-                    if (GBFreq[row][column] != 0) {
-                        gbfreq += GBFreq[row][column];
-                    } else if (15 <= row && row < 55) {
-                        // In GB high-freq character range
-                        gbfreq += 200;
-                    }
-                }
-                i++;
+    static final class Scores {
+        // 判断一个字符最多需要向后查看的字节数
+        private static final int LOOKAHEAD = 4;
+
+        private final Scorer[] scorers = {
+                new Gb2312Scorer(), new GbkScorer(), new Gb18030Scorer(), new HzScorer(),
+                new Big5Scorer(), new EucTwScorer(), new Iso2022CnScorer(), new Utf8Scorer(),
+                new Utf16Scorer(), new EucKrScorer(), new Cp949Scorer(), new Iso2022KrScorer(),
+                new AsciiScorer(), new SjisScorer(), new EucJpScorer(), new Iso2022JpScorer()
+        };
+
+        /**
+         * @param rawtext 已读取的字节, 前部须与上次输入的相同
+         * @param rawtextlen 已读取的字节数
+         * @param last 是否已全部读取
+         */
+        void feed(byte[] rawtext, int rawtextlen, boolean last) {
+            for (Scorer scorer : scorers) {
+                scorer.scan(rawtext, rawtextlen, last);
             }
         }
-        rangeval = 50 * ((float) gbchars / (float) dbchars);
-        freqval = 50 * ((float) gbfreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
+
+        /**
+         * 各编码的得分, 0 - 100
+         */
+        int[] get() {
+            int[] scores = new int[TOTALTYPES];
+            for (Scorer scorer : scorers) {
+                scores[scorer.encoding] = scorer.score();
+            }
+            return scores;
+        }
     }
 
-    /*
-     * Function: gbk_probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses GBK
-     * encoding
+    private abstract static class Scorer {
+        final int encoding;
+        // 下次开始统计的位置
+        int pos;
+
+        Scorer(int encoding) {
+            this.encoding = encoding;
+        }
+
+        /**
+         * 本次统计到的位置(不含), 未读完时留下末尾可能不完整的字符
+         */
+        static int end(int rawtextlen, boolean last) {
+            return last ? rawtextlen : rawtextlen - Scores.LOOKAHEAD;
+        }
+
+        abstract void scan(byte[] rawtext, int rawtextlen, boolean last);
+
+        abstract int score();
+    }
+
+    /**
+     * 双字节编码: 按落在编码范围内的双字节比例与字频评分
      */
-    private int gbk_probability(byte[] rawText) {
-        int i, rawTextLen = 0;
-        int dbChars = 1, gbChars = 1;
-        long gbFreq = 0, totalFreq = 1;
-        float rangeVal = 0, freqVal = 0;
-        int row, column;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawTextLen = rawText.length;
-        for (i = 0; i < rawTextLen - 1; i++) {
-            // System.err.println(rawText[i]);
-            if (rawText[i] < 0) {
-                dbChars++;
-                if ((byte) 0xA1 <= rawText[i] && rawText[i] <= (byte) 0xF7
-                        && // Original GB range
-                        (byte) 0xA1 <= rawText[i + 1]
-                        && rawText[i + 1] <= (byte) 0xFE) {
-                    gbChars++;
-                    totalFreq += 500;
-                    row = rawText[i] + 256 - 0xA1;
-                    column = rawText[i + 1] + 256 - 0xA1;
-                    // System.out.println("original row " + row + " column " +
-                    // column);
-                    if (GBFreq[row][column] != 0) {
-                        gbFreq += GBFreq[row][column];
-                    } else if (15 <= row && row < 55) {
-                        gbFreq += 200;
-                    }
-                } else if ((byte) 0x81 <= rawText[i]
-                        && rawText[i] <= (byte) 0xFE && // Extended GB range
-                        (((byte) 0x80 <= rawText[i + 1] && rawText[i + 1] <= (byte) 0xFE) || ((byte) 0x40 <= rawText[i + 1] && rawText[i + 1] <= (byte) 0x7E))) {
-                    gbChars++;
-                    totalFreq += 500;
-                    row = rawText[i] + 256 - 0x81;
-                    if (0x40 <= rawText[i + 1] && rawText[i + 1] <= 0x7E) {
-                        column = rawText[i + 1] - 0x40;
-                    } else {
-                        column = rawText[i + 1] + 256 - 0x40;
-                    }
-                    // System.out.println("extended row " + row + " column " +
-                    // column + " rawtext[i] " + rawtext[i]);
-                    if (GBKFreq[row][column] != 0) {
-                        gbFreq += GBKFreq[row][column];
+    private abstract static class FreqScorer extends Scorer {
+        // 得分相同时让位于其子集
+        private final int handicap;
+        int dbchars = 1, chars = 1;
+        long freq = 0, totalfreq = 1;
+
+        FreqScorer(int encoding, int handicap) {
+            super(encoding);
+            this.handicap = handicap;
+        }
+
+        @Override
+        int score() {
+            float rangeval = 50 * ((float) chars / (float) dbchars);
+            float freqval = 50 * ((float) freq / (float) totalfreq);
+            return (int) (rangeval + freqval) - handicap;
+        }
+    }
+
+    private static final class Gb2312Scorer extends FreqScorer {
+        Gb2312Scorer() {
+            super(GB2312, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xF7
+                            && (byte) 0xA1 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xFE) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0xA1;
+                        column = rawtext[i + 1] + 256 - 0xA1;
+                        if (GBFreq[row][column] != 0) {
+                            freq += GBFreq[row][column];
+                        } else if (15 <= row && row < 55) {
+                            // In GB high-freq character range
+                            freq += 200;
+                        }
                     }
+                    i++;
                 }
-                i++;
             }
+            pos = i;
         }
-        rangeVal = 50 * ((float) gbChars / (float) dbChars);
-        freqVal = 50 * ((float) gbFreq / (float) totalFreq);
-        // For regular GB files, this would give the same score, so I handicap
-        // it slightly
-        return (int) (rangeVal + freqVal) - 1;
     }
 
-    /*
-     * Function: gb18030_probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses GBK
-     * encoding
-     */
-    private int gb18030_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, gbchars = 1;
-        long gbfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            // System.err.println(rawText[i]);
-            if (rawtext[i] < 0) {
-                dbchars++;
-                if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xF7
-                        && // Original GB range
-                        i + 1 < rawtextlen && (byte) 0xA1 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xFE) {
-                    gbchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0xA1;
-                    column = rawtext[i + 1] + 256 - 0xA1;
-                    // System.out.println("original row " + row + " column " +
-                    // column);
-                    if (GBFreq[row][column] != 0) {
-                        gbfreq += GBFreq[row][column];
-                    } else if (15 <= row && row < 55) {
-                        gbfreq += 200;
-                    }
-                } else if ((byte) 0x81 <= rawtext[i]
-                        && rawtext[i] <= (byte) 0xFE
-                        && // Extended GB range
-                        i + 1 < rawtextlen
-                        && (((byte) 0x80 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFE) || ((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E))) {
-                    gbchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0x81;
-                    if (0x40 <= rawtext[i + 1] && rawtext[i + 1] <= 0x7E) {
-                        column = rawtext[i + 1] - 0x40;
-                    } else {
-                        column = rawtext[i + 1] + 256 - 0x40;
+    private static final class GbkScorer extends FreqScorer {
+        GbkScorer() {
+            // For regular GB files, this would give the same score, so I handicap it slightly
+            super(GBK, 1);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xF7
+                            && // Original GB range
+                            (byte) 0xA1 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xFE) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0xA1;
+                        column = rawtext[i + 1] + 256 - 0xA1;
+                        if (GBFreq[row][column] != 0) {
+                            freq += GBFreq[row][column];
+                        } else if (15 <= row && row < 55) {
+                            freq += 200;
+                        }
+                    } else if ((byte) 0x81 <= rawtext[i]
+                            && rawtext[i] <= (byte) 0xFE && // Extended GB range
+                            (((byte) 0x80 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFE) || ((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E))) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0x81;
+                        if (0x40 <= rawtext[i + 1] && rawtext[i + 1] <= 0x7E) {
+                            column = rawtext[i + 1] - 0x40;
+                        } else {
+                            column = rawtext[i + 1] + 256 - 0x40;
+                        }
+                        if (GBKFreq[row][column] != 0) {
+                            freq += GBKFreq[row][column];
+                        }
                     }
-                    // System.out.println("extended row " + row + " column " +
-                    // column + " rawtext[i] " + rawtext[i]);
-                    if (GBKFreq[row][column] != 0) {
-                        gbfreq += GBKFreq[row][column];
+                    i++;
+                }
+            }
+            pos = i;
+        }
+    }
+
+    private static final class Gb18030Scorer extends FreqScorer {
+        Gb18030Scorer() {
+            super(GB18030, 1);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xF7
+                            && // Original GB range
+                            i + 1 < rawtextlen && (byte) 0xA1 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xFE) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0xA1;
+                        column = rawtext[i + 1] + 256 - 0xA1;
+                        if (GBFreq[row][column] != 0) {
+                            freq += GBFreq[row][column];
+                        } else if (15 <= row && row < 55) {
+                            freq += 200;
+                        }
+                    } else if ((byte) 0x81 <= rawtext[i]
+                            && rawtext[i] <= (byte) 0xFE
+                            && // Extended GB range
+                            i + 1 < rawtextlen
+                            && (((byte) 0x80 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFE) || ((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E))) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0x81;
+                        if (0x40 <= rawtext[i + 1] && rawtext[i + 1] <= 0x7E) {
+                            column = rawtext[i + 1] - 0x40;
+                        } else {
+                            column = rawtext[i + 1] + 256 - 0x40;
+                        }
+                        if (GBKFreq[row][column] != 0) {
+                            freq += GBKFreq[row][column];
+                        }
+                    } else if ((byte) 0x81 <= rawtext[i]
+                            && rawtext[i] <= (byte) 0xFE
+                            && // Extended GB range
+                            i + 3 < rawtextlen && (byte) 0x30 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0x39
+                            && (byte) 0x81 <= rawtext[i + 2]
+                            && rawtext[i + 2] <= (byte) 0xFE
+                            && (byte) 0x30 <= rawtext[i + 3]
+                            && rawtext[i + 3] <= (byte) 0x39) {
+                        // 四字节字符都是低频字, 不计字频
+                        chars++;
                     }
-                } else if ((byte) 0x81 <= rawtext[i]
-                        && rawtext[i] <= (byte) 0xFE
-                        && // Extended GB range
-                        i + 3 < rawtextlen && (byte) 0x30 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0x39
-                        && (byte) 0x81 <= rawtext[i + 2]
-                        && rawtext[i + 2] <= (byte) 0xFE
-                        && (byte) 0x30 <= rawtext[i + 3]
-                        && rawtext[i + 3] <= (byte) 0x39) {
-                    gbchars++;
-                    /*
-                     * totalfreq += 500; row = rawtext[i] + 256 - 0x81; if (0x40
-                     * <= rawtext[i+1] && rawtext[i+1] <= 0x7E) { column =
-                     * rawtext[i+1] - 0x40; } else { column = rawtext[i+1] + 256
-                     * - 0x40; } //System.out.println("extended row " + row + "
-                     * column " + column + " rawtext[i] " + rawtext[i]); if
-                     * (GBKFreq[row][column] != 0) { gbfreq +=
-                     * GBKFreq[row][column]; }
-                     */
+                    i++;
                 }
-                i++;
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) gbchars / (float) dbchars);
-        freqval = 50 * ((float) gbfreq / (float) totalfreq);
-        // For regular GB files, this would give the same score, so I handicap
-        // it slightly
-        return (int) (rangeval + freqval) - 1;
     }
 
-    /*
-     * Function: hz_probability Argument: byte array Returns : number from 0 to
-     * 100 representing probability text in array uses HZ encoding
-     */
-    private int hz_probability(byte[] rawtext) {
-        int i, rawtextlen;
-        int hzchars = 0, dbchars = 1;
-        long hzfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int hzstart = 0, hzend = 0;
-        int row, column;
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen; i++) {
-            if (rawtext[i] == '~') {
-                if (rawtext[i + 1] == '{') {
-                    hzstart++;
-                    i += 2;
-                    while (i < rawtextlen - 1) {
+    private static final class HzScorer extends Scorer {
+        private int hzchars = 0, dbchars = 1;
+        private long hzfreq = 0, totalfreq = 1;
+        private int hzstart = 0, hzend = 0;
+        // 位于 ~{ 与 ~} 之间
+        private boolean inHz;
+
+        HzScorer() {
+            super(HZ);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int row, column;
+            int end = end(rawtextlen, last);
+            int innerEnd = Math.min(end, rawtextlen - 1);
+            int i = pos;
+            while (true) {
+                if (inHz) {
+                    while (i < innerEnd) {
                         if (rawtext[i] == 0x0A || rawtext[i] == 0x0D) {
+                            inHz = false;
                             break;
                         } else if (rawtext[i] == '~' && rawtext[i + 1] == '}') {
                             hzend++;
                             i++;
+                            inHz = false;
                             break;
                         } else if ((0x21 <= rawtext[i] && rawtext[i] <= 0x77)
                                 && (0x21 <= rawtext[i + 1] && rawtext[i + 1] <= 0x77)) {
@@ -486,523 +766,529 @@ class BytesEncodingDetect extends Encoding {
                         dbchars += 2;
                         i += 2;
                     }
-                } else if (rawtext[i + 1] == '}') {
-                    hzend++;
-                    i++;
-                } else if (rawtext[i + 1] == '~') {
+                    if (inHz) {
+                        // 等待更多字节
+                        if (!last) break;
+                        inHz = false;
+                    }
                     i++;
+                    continue;
                 }
+                if (i >= end) break;
+                if (rawtext[i] == '~' && i + 1 < rawtextlen) {
+                    if (rawtext[i + 1] == '{') {
+                        hzstart++;
+                        i += 2;
+                        inHz = true;
+                        continue;
+                    } else if (rawtext[i + 1] == '}') {
+                        hzend++;
+                        i++;
+                    } else if (rawtext[i + 1] == '~') {
+                        i++;
+                    }
+                }
+                i++;
             }
+            pos = i;
         }
-        if (hzstart > 4) {
-            rangeval = 50;
-        } else if (hzstart > 1) {
-            rangeval = 41;
-        } else if (hzstart > 0) { // Only 39 in case the sequence happened to
-            // occur
-            rangeval = 39; // in otherwise non-Hz text
-        } else {
-            rangeval = 0;
+
+        @Override
+        int score() {
+            float rangeval;
+            if (hzstart > 4) {
+                rangeval = 50;
+            } else if (hzstart > 1) {
+                rangeval = 41;
+            } else if (hzstart > 0) { // Only 39 in case the sequence happened to
+                // occur
+                rangeval = 39; // in otherwise non-Hz text
+            } else {
+                rangeval = 0;
+            }
+            float freqval = 50 * ((float) hzfreq / (float) totalfreq);
+            return (int) (rangeval + freqval);
         }
-        freqval = 50 * ((float) hzfreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
     }
 
-    /**
-     * Function: big5_probability Argument: byte array Returns : number from 0
-     * to 100 representing probability text in array uses Big5 encoding
-     */
-    private int big5_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, bfchars = 1;
-        float rangeval = 0, freqval = 0;
-        long bffreq = 0, totalfreq = 1;
-        int row, column;
-        // Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            if (rawtext[i] < 0) {
-                dbchars++;
-                if ((byte) 0xA1 <= rawtext[i]
-                        && rawtext[i] <= (byte) 0xF9
-                        && (((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E) || ((byte) 0xA1 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFE))) {
-                    bfchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0xA1;
-                    if (0x40 <= rawtext[i + 1] && rawtext[i + 1] <= 0x7E) {
-                        column = rawtext[i + 1] - 0x40;
-                    } else {
-                        column = rawtext[i + 1] + 256 - 0x61;
-                    }
-                    if (Big5Freq[row][column] != 0) {
-                        bffreq += Big5Freq[row][column];
-                    } else if (3 <= row && row <= 37) {
-                        bffreq += 200;
+    private static final class Big5Scorer extends FreqScorer {
+        Big5Scorer() {
+            super(BIG5, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if ((byte) 0xA1 <= rawtext[i]
+                            && rawtext[i] <= (byte) 0xF9
+                            && (((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E) || ((byte) 0xA1 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFE))) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0xA1;
+                        if (0x40 <= rawtext[i + 1] && rawtext[i + 1] <= 0x7E) {
+                            column = rawtext[i + 1] - 0x40;
+                        } else {
+                            column = rawtext[i + 1] + 256 - 0x61;
+                        }
+                        if (Big5Freq[row][column] != 0) {
+                            freq += Big5Freq[row][column];
+                        } else if (3 <= row && row <= 37) {
+                            freq += 200;
+                        }
                     }
+                    i++;
                 }
-                i++;
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) bfchars / (float) dbchars);
-        freqval = 50 * ((float) bffreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
     }
 
-    /*
-     * Function: euc_tw_probability Argument: byte array Returns : number from 0
-     * to 100 representing probability text in array uses EUC-TW (CNS 11643)
-     * encoding
-     */
-    private int euc_tw_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, cnschars = 1;
-        long cnsfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Check to see if characters fit into acceptable ranges
-        // and have expected frequency of use
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            if (rawtext[i] < 0) { // high bit set
-                dbchars++;
-                if (i + 3 < rawtextlen && (byte) 0x8E == rawtext[i]
-                        && (byte) 0xA1 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xB0
-                        && (byte) 0xA1 <= rawtext[i + 2]
-                        && rawtext[i + 2] <= (byte) 0xFE
-                        && (byte) 0xA1 <= rawtext[i + 3]
-                        && rawtext[i + 3] <= (byte) 0xFE) { // Planes 1 - 16
-                    cnschars++;
-                    // System.out.println("plane 2 or above CNS char");
-                    // These are all less frequent chars so just ignore freq
-                    i += 3;
-                } else if ((byte) 0xA1 <= rawtext[i]
-                        && rawtext[i] <= (byte) 0xFE
-                        && // Plane 1
-                        (byte) 0xA1 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xFE) {
-                    cnschars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0xA1;
-                    column = rawtext[i + 1] + 256 - 0xA1;
-                    if (EUC_TWFreq[row][column] != 0) {
-                        cnsfreq += EUC_TWFreq[row][column];
-                    } else if (35 <= row && row <= 92) {
-                        cnsfreq += 150;
+    private static final class EucTwScorer extends FreqScorer {
+        EucTwScorer() {
+            super(CNS11643, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) { // high bit set
+                    dbchars++;
+                    if (i + 3 < rawtextlen && (byte) 0x8E == rawtext[i]
+                            && (byte) 0xA1 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xB0
+                            && (byte) 0xA1 <= rawtext[i + 2]
+                            && rawtext[i + 2] <= (byte) 0xFE
+                            && (byte) 0xA1 <= rawtext[i + 3]
+                            && rawtext[i + 3] <= (byte) 0xFE) { // Planes 1 - 16
+                        chars++;
+                        // These are all less frequent chars so just ignore freq
+                        i += 3;
+                    } else if ((byte) 0xA1 <= rawtext[i]
+                            && rawtext[i] <= (byte) 0xFE
+                            && // Plane 1
+                            (byte) 0xA1 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xFE) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0xA1;
+                        column = rawtext[i + 1] + 256 - 0xA1;
+                        if (EUC_TWFreq[row][column] != 0) {
+                            freq += EUC_TWFreq[row][column];
+                        } else if (35 <= row && row <= 92) {
+                            freq += 150;
+                        }
+                        i++;
                     }
-                    i++;
                 }
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) cnschars / (float) dbchars);
-        freqval = 50 * ((float) cnsfreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
     }
 
-    /*
-     * Function: iso_2022_cn_probability Argument: byte array Returns : number
-     * from 0 to 100 representing probability text in array uses ISO 2022-CN
-     * encoding WORKS FOR BASIC CASES, BUT STILL NEEDS MORE WORK
+    /**
+     * WORKS FOR BASIC CASES, BUT STILL NEEDS MORE WORK
      */
-    int iso_2022_cn_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, isochars = 1;
-        long isofreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Check to see if characters fit into acceptable ranges
-        // and have expected frequency of use
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            if (rawtext[i] == (byte) 0x1B && i + 3 < rawtextlen) { // Escape
-                // char ESC
-                if (rawtext[i + 1] == (byte) 0x24 && rawtext[i + 2] == 0x29
-                        && rawtext[i + 3] == (byte) 0x41) { // GB Escape $ ) A
-                    i += 4;
-                    while (rawtext[i] != (byte) 0x1B) {
+    private static final class Iso2022CnScorer extends FreqScorer {
+        private static final int MODE_ASCII = 0;
+        private static final int MODE_GB = 1;
+        private static final int MODE_CNS = 2;
+        // 当前所在的转义段
+        private int mode = MODE_ASCII;
+
+        Iso2022CnScorer() {
+            super(ISO2022CN, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            int i = pos;
+            while (true) {
+                if (mode != MODE_ASCII) {
+                    while (i < end && rawtext[i] != (byte) 0x1B) {
                         dbchars++;
-                        if ((0x21 <= rawtext[i] && rawtext[i] <= 0x77)
-                                && (0x21 <= rawtext[i + 1] && rawtext[i + 1] <= 0x77)) {
-                            isochars++;
-                            row = rawtext[i] - 0x21;
-                            column = rawtext[i + 1] - 0x21;
-                            totalfreq += 500;
-                            if (GBFreq[row][column] != 0) {
-                                isofreq += GBFreq[row][column];
-                            } else if (15 <= row && row < 55) {
-                                isofreq += 200;
+                        if (mode == MODE_GB) {
+                            if ((0x21 <= rawtext[i] && rawtext[i] <= 0x77)
+                                    && (0x21 <= rawtext[i + 1] && rawtext[i + 1] <= 0x77)) {
+                                chars++;
+                                row = rawtext[i] - 0x21;
+                                column = rawtext[i + 1] - 0x21;
+                                totalfreq += 500;
+                                if (GBFreq[row][column] != 0) {
+                                    freq += GBFreq[row][column];
+                                } else if (15 <= row && row < 55) {
+                                    freq += 200;
+                                }
+                                i++;
                             }
-                            i++;
-                        }
-                        i++;
-                    }
-                } else if (i + 3 < rawtextlen && rawtext[i + 1] == (byte) 0x24
-                        && rawtext[i + 2] == (byte) 0x29
-                        && rawtext[i + 3] == (byte) 0x47) {
-                    // CNS Escape $ ) G
-                    i += 4;
-                    while (rawtext[i] != (byte) 0x1B) {
-                        dbchars++;
-                        if ((byte) 0x21 <= rawtext[i]
+                        } else if ((byte) 0x21 <= rawtext[i]
                                 && rawtext[i] <= (byte) 0x7E
                                 && (byte) 0x21 <= rawtext[i + 1]
                                 && rawtext[i + 1] <= (byte) 0x7E) {
-                            isochars++;
+                            chars++;
                             totalfreq += 500;
                             row = rawtext[i] - 0x21;
                             column = rawtext[i + 1] - 0x21;
                             if (EUC_TWFreq[row][column] != 0) {
-                                isofreq += EUC_TWFreq[row][column];
+                                freq += EUC_TWFreq[row][column];
                             } else if (35 <= row && row <= 92) {
-                                isofreq += 150;
+                                freq += 150;
                             }
                             i++;
                         }
                         i++;
                     }
+                    // 等待更多字节
+                    if (i >= end && !last) break;
+                    mode = MODE_ASCII;
+                    if (i + 2 < rawtextlen && rawtext[i] == (byte) 0x1B
+                            && rawtext[i + 1] == (byte) 0x28
+                            && rawtext[i + 2] == (byte) 0x42) { // ASCII: ESC ( B
+                        i += 2;
+                    }
+                    i++;
+                    continue;
                 }
-                if (rawtext[i] == (byte) 0x1B && i + 2 < rawtextlen
-                        && rawtext[i + 1] == (byte) 0x28
-                        && rawtext[i + 2] == (byte) 0x42) { // ASCII:
-                    // ESC
-                    // ( B
-                    i += 2;
+                if (i >= end) break;
+                if (rawtext[i] == (byte) 0x1B && i + 3 < rawtextlen) { // Escape char ESC
+                    if (rawtext[i + 1] == (byte) 0x24 && rawtext[i + 2] == 0x29
+                            && rawtext[i + 3] == (byte) 0x41) { // GB Escape $ ) A
+                        i += 4;
+                        mode = MODE_GB;
+                        continue;
+                    } else if (rawtext[i + 1] == (byte) 0x24
+                            && rawtext[i + 2] == (byte) 0x29
+                            && rawtext[i + 3] == (byte) 0x47) { // CNS Escape $ ) G
+                        i += 4;
+                        mode = MODE_CNS;
+                        continue;
+                    }
+                    if (i + 2 < rawtextlen && rawtext[i + 1] == (byte) 0x28
+                            && rawtext[i + 2] == (byte) 0x42) { // ASCII: ESC ( B
+                        i += 2;
+                    }
                 }
+                i++;
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) isochars / (float) dbchars);
-        freqval = 50 * ((float) isofreq / (float) totalfreq);
-        // System.out.println("isochars dbchars isofreq totalfreq " + isochars +
-        // " " + dbchars + " " + isofreq + " " + totalfreq + "
-        // " + rangeval + " " + freqval);
-        return (int) (rangeval + freqval);
-        // return 0;
     }
 
-    /*
-     * Function: utf8_probability Argument: byte array Returns : number from 0
-     * to 100 representing probability text in array uses UTF-8 encoding of
-     * Unicode
-     */
-    int utf8_probability(byte[] rawtext) {
-        int score = 0;
-        int i, rawtextlen = 0;
-        int goodbytes = 0, asciibytes = 0;
-        // Maybe also use UTF8 Byte Order Mark: EF BB BF
-        // Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen; i++) {
-            if ((rawtext[i] & (byte) 0x7F) == rawtext[i]) { // One byte
-                asciibytes++;
-                // Ignore ASCII, can throw off count
-            } else if (-64 <= rawtext[i] && rawtext[i] <= -33
-                    && // Two bytes
-                    i + 1 < rawtextlen && -128 <= rawtext[i + 1]
-                    && rawtext[i + 1] <= -65) {
-                goodbytes += 2;
-                i++;
-            } else if (-32 <= rawtext[i]
-                    && rawtext[i] <= -17
-                    && // Three bytes
-                    i + 2 < rawtextlen && -128 <= rawtext[i + 1]
-                    && rawtext[i + 1] <= -65 && -128 <= rawtext[i + 2]
-                    && rawtext[i + 2] <= -65) {
-                goodbytes += 3;
-                i += 2;
-            }
+    private static final class Utf8Scorer extends Scorer {
+        private int goodbytes = 0, asciibytes = 0;
+
+        Utf8Scorer() {
+            super(UTF8);
         }
-        if (asciibytes == rawtextlen) {
-            return 0;
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i;
+            int end = end(rawtextlen, last);
+            for (i = pos; i < end; i++) {
+                if ((rawtext[i] & (byte) 0x7F) == rawtext[i]) { // One byte
+                    asciibytes++;
+                    // Ignore ASCII, can throw off count
+                } else if (-64 <= rawtext[i] && rawtext[i] <= -33
+                        && // Two bytes
+                        i + 1 < rawtextlen && -128 <= rawtext[i + 1]
+                        && rawtext[i + 1] <= -65) {
+                    goodbytes += 2;
+                    i++;
+                } else if (-32 <= rawtext[i]
+                        && rawtext[i] <= -17
+                        && // Three bytes
+                        i + 2 < rawtextlen && -128 <= rawtext[i + 1]
+                        && rawtext[i + 1] <= -65 && -128 <= rawtext[i + 2]
+                        && rawtext[i + 2] <= -65) {
+                    goodbytes += 3;
+                    i += 2;
+                }
+            }
+            pos = i;
         }
-        score = (int) (100 * ((float) goodbytes / (float) (rawtextlen - asciibytes)));
-        // System.out.println("rawtextlen " + rawtextlen + " goodbytes " +
-        // goodbytes + " asciibytes " + asciibytes + " score " +
-        // score);
-        // If not above 98, reduce to zero to prevent coincidental matches
-        // Allows for some (few) bad formed sequences
-        if (score > 98) {
-            return score;
-        } else if (score > 95 && goodbytes > 30) {
-            return score;
-        } else {
-            return 0;
+
+        @Override
+        int score() {
+            // 已统计的字节数
+            int rawtextlen = pos;
+            if (asciibytes == rawtextlen) {
+                return 0;
+            }
+            int score = (int) (100 * ((float) goodbytes / (float) (rawtextlen - asciibytes)));
+            // If not above 98, reduce to zero to prevent coincidental matches
+            // Allows for some (few) bad formed sequences
+            if (score > 98) {
+                return score;
+            } else if (score > 95 && goodbytes > 30) {
+                return score;
+            } else {
+                return 0;
+            }
         }
     }
 
-    /*
-     * Function: utf16_probability Argument: byte array Returns : number from 0
-     * to 100 representing probability text in array uses UTF-16 encoding of
-     * Unicode, guess based on BOM // NOT VERY GENERAL, NEEDS MUCH MORE WORK
+    /**
+     * guess based on BOM // NOT VERY GENERAL, NEEDS MUCH MORE WORK
      */
-    int utf16_probability(byte[] rawtext) {
-        // int score = 0;
-        // int i, rawtextlen = 0;
-        // int goodbytes = 0, asciibytes = 0;
-        if (rawtext.length > 1
-                && ((byte) 0xFE == rawtext[0] && (byte) 0xFF == rawtext[1]) || // Big-endian
-                ((byte) 0xFF == rawtext[0] && (byte) 0xFE == rawtext[1])) { // Little-endian
-            return 100;
+    private static final class Utf16Scorer extends Scorer {
+        private boolean bom;
+
+        Utf16Scorer() {
+            super(UNICODE);
         }
-        return 0;
-        /*
-         * // Check to see if characters fit into acceptable ranges rawtextlen =
-         * rawtext.length; for (i = 0; i < rawtextlen; i++) { if ((rawtext[i] &
-         * (byte)0x7F) == rawtext[i]) { // One byte goodbytes += 1;
-         * asciibytes++; } else if ((rawtext[i] & (byte)0xDF) == rawtext[i]) {
-         * // Two bytes if (i+1 < rawtextlen && (rawtext[i+1] & (byte)0xBF) ==
-         * rawtext[i+1]) { goodbytes += 2; i++; } } else if ((rawtext[i] &
-         * (byte)0xEF) == rawtext[i]) { // Three bytes if (i+2 < rawtextlen &&
-         * (rawtext[i+1] & (byte)0xBF) == rawtext[i+1] && (rawtext[i+2] &
-         * (byte)0xBF) == rawtext[i+2]) { goodbytes += 3; i+=2; } } }
-         *
-         * score = (int)(100 * ((float)goodbytes/(float)rawtext.length)); // An
-         * all ASCII file is also a good UTF8 file, but I'd rather it // get
-         * identified as ASCII. Can delete following 3 lines otherwise if
-         * (goodbytes == asciibytes) { score = 0; } // If not above 90, reduce
-         * to zero to prevent coincidental matches if (score > 90) { return
-         * score; } else { return 0; }
-         */
-    }
 
-    /*
-     * Function: ascii_probability Argument: byte array Returns : number from 0
-     * to 100 representing probability text in array uses all ASCII Description:
-     * Sees if array has any characters not in ASCII range, if so, score is
-     * reduced
-     */
-    int ascii_probability(byte[] rawtext) {
-        int score = 75;
-        int i, rawtextlen;
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen; i++) {
-            if (rawtext[i] < 0) {
-                score = score - 5;
-            } else if (rawtext[i] == (byte) 0x1B) { // ESC (used by ISO 2022)
-                score = score - 5;
-            }
-            if (score <= 0) {
-                return 0;
-            }
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            bom = rawtextlen > 1
+                    && (((byte) 0xFE == rawtext[0] && (byte) 0xFF == rawtext[1]) || // Big-endian
+                    ((byte) 0xFF == rawtext[0] && (byte) 0xFE == rawtext[1])); // Little-endian
+        }
+
+        @Override
+        int score() {
+            return bom ? 100 : 0;
         }
-        return score;
     }
 
-    /*
-     * Function: euc_kr__probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses EUC-KR
-     * encoding
+    /**
+     * Sees if array has any characters not in ASCII range, if so, score is reduced
      */
-    int euc_kr_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, krchars = 1;
-        long krfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            // System.err.println(rawtext[i]);
-            if (rawtext[i] >= 0) {
-                // asciichars++;
-            } else {
-                dbchars++;
-                if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xFE
-                        && (byte) 0xA1 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xFE) {
-                    krchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0xA1;
-                    column = rawtext[i + 1] + 256 - 0xA1;
-                    if (KRFreq[row][column] != 0) {
-                        krfreq += KRFreq[row][column];
-                    } else if (15 <= row && row < 55) {
-                        krfreq += 0;
-                    }
+    private static final class AsciiScorer extends Scorer {
+        private int badbytes;
+
+        AsciiScorer() {
+            super(ASCII);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i;
+            int end = end(rawtextlen, last);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0 || rawtext[i] == (byte) 0x1B) { // ESC (used by ISO 2022)
+                    badbytes++;
                 }
-                i++;
             }
+            pos = i;
+        }
+
+        @Override
+        int score() {
+            return badbytes >= 15 ? 0 : 75 - 5 * badbytes;
         }
-        rangeval = 50 * ((float) krchars / (float) dbchars);
-        freqval = 50 * ((float) krfreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
     }
 
-    /*
-     * Function: cp949__probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses Cp949
-     * encoding
-     */
-    int cp949_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, krchars = 1;
-        long krfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            // System.err.println(rawtext[i]);
-            if (rawtext[i] >= 0) {
-                // asciichars++;
-            } else {
-                dbchars++;
-                if ((byte) 0x81 <= rawtext[i]
-                        && rawtext[i] <= (byte) 0xFE
-                        && ((byte) 0x41 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0x5A
-                        || (byte) 0x61 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0x7A || (byte) 0x81 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xFE)) {
-                    krchars++;
-                    totalfreq += 500;
+    private static final class EucKrScorer extends FreqScorer {
+        EucKrScorer() {
+            super(EUC_KR, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
                     if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xFE
                             && (byte) 0xA1 <= rawtext[i + 1]
                             && rawtext[i + 1] <= (byte) 0xFE) {
+                        chars++;
+                        totalfreq += 500;
                         row = rawtext[i] + 256 - 0xA1;
                         column = rawtext[i + 1] + 256 - 0xA1;
                         if (KRFreq[row][column] != 0) {
-                            krfreq += KRFreq[row][column];
+                            freq += KRFreq[row][column];
                         }
                     }
+                    i++;
+                }
+            }
+            pos = i;
+        }
+    }
+
+    private static final class Cp949Scorer extends FreqScorer {
+        Cp949Scorer() {
+            super(CP949, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if ((byte) 0x81 <= rawtext[i]
+                            && rawtext[i] <= (byte) 0xFE
+                            && ((byte) 0x41 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0x5A
+                            || (byte) 0x61 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0x7A || (byte) 0x81 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xFE)) {
+                        chars++;
+                        totalfreq += 500;
+                        if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xFE
+                                && (byte) 0xA1 <= rawtext[i + 1]
+                                && rawtext[i + 1] <= (byte) 0xFE) {
+                            row = rawtext[i] + 256 - 0xA1;
+                            column = rawtext[i + 1] + 256 - 0xA1;
+                            if (KRFreq[row][column] != 0) {
+                                freq += KRFreq[row][column];
+                            }
+                        }
+                    }
+                    i++;
                 }
-                i++;
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) krchars / (float) dbchars);
-        freqval = 50 * ((float) krfreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
     }
 
-    private int iso_2022_kr_probability(byte[] rawtext) {
-        int i;
-        for (i = 0; i < rawtext.length; i++) {
-            if (i + 3 < rawtext.length && rawtext[i] == 0x1b
-                    && (char) rawtext[i + 1] == '$'
-                    && (char) rawtext[i + 2] == ')'
-                    && (char) rawtext[i + 3] == 'C') {
-                return 100;
+    private static final class Iso2022KrScorer extends Scorer {
+        private boolean found;
+
+        Iso2022KrScorer() {
+            super(ISO2022KR);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i;
+            int end = end(rawtextlen, last);
+            for (i = pos; i < end && !found; i++) {
+                if (i + 3 < rawtextlen && rawtext[i] == 0x1b
+                        && (char) rawtext[i + 1] == '$'
+                        && (char) rawtext[i + 2] == ')'
+                        && (char) rawtext[i + 3] == 'C') {
+                    found = true;
+                }
             }
+            pos = i;
+        }
+
+        @Override
+        int score() {
+            return found ? 100 : 0;
         }
-        return 0;
     }
 
-    /*
-     * Function: euc_jp_probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses EUC-JP
-     * encoding
-     */
-    private int euc_jp_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, jpchars = 1;
-        long jpfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            // System.err.println(rawText[i]);
-            if (rawtext[i] >= 0) {
-                // asciiChars++;
-            } else {
-                dbchars++;
-                if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xFE
-                        && (byte) 0xA1 <= rawtext[i + 1]
-                        && rawtext[i + 1] <= (byte) 0xFE) {
-                    jpchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256 - 0xA1;
-                    column = rawtext[i + 1] + 256 - 0xA1;
-                    if (JPFreq[row][column] != 0) {
-                        jpfreq += JPFreq[row][column];
-                    } else if (15 <= row && row < 55) {
-                        jpfreq += 0;
+    private static final class EucJpScorer extends FreqScorer {
+        EucJpScorer() {
+            super(EUC_JP, 0);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if ((byte) 0xA1 <= rawtext[i] && rawtext[i] <= (byte) 0xFE
+                            && (byte) 0xA1 <= rawtext[i + 1]
+                            && rawtext[i + 1] <= (byte) 0xFE) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256 - 0xA1;
+                        column = rawtext[i + 1] + 256 - 0xA1;
+                        if (JPFreq[row][column] != 0) {
+                            freq += JPFreq[row][column];
+                        }
                     }
+                    i++;
                 }
-                i++;
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) jpchars / (float) dbchars);
-        freqval = 50 * ((float) jpfreq / (float) totalfreq);
-        return (int) (rangeval + freqval);
     }
 
-    int iso_2022_jp_probability(byte[] rawtext) {
-        int i;
-        for (i = 0; i < rawtext.length; i++) {
-            if (i + 2 < rawtext.length && rawtext[i] == 0x1b
-                    && (char) rawtext[i + 1] == '$'
-                    && (char) rawtext[i + 2] == 'B') {
-                return 100;
+    private static final class Iso2022JpScorer extends Scorer {
+        private boolean found;
+
+        Iso2022JpScorer() {
+            super(ISO2022JP);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i;
+            int end = end(rawtextlen, last);
+            for (i = pos; i < end && !found; i++) {
+                if (i + 2 < rawtextlen && rawtext[i] == 0x1b
+                        && (char) rawtext[i + 1] == '$'
+                        && (char) rawtext[i + 2] == 'B') {
+                    found = true;
+                }
             }
+            pos = i;
+        }
+
+        @Override
+        int score() {
+            return found ? 100 : 0;
         }
-        return 0;
     }
 
-    /*
-     * Function: sjis_probability Argument: pointer to byte array Returns :
-     * number from 0 to 100 representing probability text in array uses
-     * Shift-JIS encoding
-     */
-    int sjis_probability(byte[] rawtext) {
-        int i, rawtextlen = 0;
-        int dbchars = 1, jpchars = 1;
-        long jpfreq = 0, totalfreq = 1;
-        float rangeval = 0, freqval = 0;
-        int row, column, adjust;
-        // Stage 1: Check to see if characters fit into acceptable ranges
-        rawtextlen = rawtext.length;
-        for (i = 0; i < rawtextlen - 1; i++) {
-            // System.err.println(rawtext[i]);
-            if (rawtext[i] >= 0) {
-                // asciichars++;
-            } else {
-                dbchars++;
-                if (i + 1 < rawtext.length
-                        && (((byte) 0x81 <= rawtext[i] && rawtext[i] <= (byte) 0x9F) || ((byte) 0xE0 <= rawtext[i] && rawtext[i] <= (byte) 0xEF))
-                        && (((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E) || ((byte) 0x80 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFC))) {
-                    jpchars++;
-                    totalfreq += 500;
-                    row = rawtext[i] + 256;
-                    column = rawtext[i + 1] + 256;
-                    if (column < 0x9f) {
-                        adjust = 1;
-                        if (column > 0x7f) {
-                            column -= 0x20;
+    private static final class SjisScorer extends FreqScorer {
+        SjisScorer() {
+            super(SJIS, 1);
+        }
+
+        @Override
+        void scan(byte[] rawtext, int rawtextlen, boolean last) {
+            int i, row, column, adjust;
+            int end = Math.min(end(rawtextlen, last), rawtextlen - 1);
+            for (i = pos; i < end; i++) {
+                if (rawtext[i] < 0) {
+                    dbchars++;
+                    if (i + 1 < rawtextlen
+                            && (((byte) 0x81 <= rawtext[i] && rawtext[i] <= (byte) 0x9F) || ((byte) 0xE0 <= rawtext[i] && rawtext[i] <= (byte) 0xEF))
+                            && (((byte) 0x40 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0x7E) || ((byte) 0x80 <= rawtext[i + 1] && rawtext[i + 1] <= (byte) 0xFC))) {
+                        chars++;
+                        totalfreq += 500;
+                        row = rawtext[i] + 256;
+                        column = rawtext[i + 1] + 256;
+                        if (column < 0x9f) {
+                            adjust = 1;
+                            if (column > 0x7f) {
+                                column -= 0x20;
+                            } else {
+                                column -= 0x19;
+                            }
                         } else {
-                            column -= 0x19;
+                            adjust = 0;
+                            column -= 0x7e;
                         }
-                    } else {
-                        adjust = 0;
-                        column -= 0x7e;
-                    }
-                    if (row < 0xa0) {
-                        row = ((row - 0x70) << 1) - adjust;
-                    } else {
-                        row = ((row - 0xb0) << 1) - adjust;
-                    }
-                    row -= 0x20;
-                    column = 0x20;
-                    // System.out.println("original row " + row + " column " +
-                    // column);
-                    if (row < JPFreq.length && column < JPFreq[row].length
-                            && JPFreq[row][column] != 0) {
-                        jpfreq += JPFreq[row][column];
+                        if (row < 0xa0) {
+                            row = ((row - 0x70) << 1) - adjust;
+                        } else {
+                            row = ((row - 0xb0) << 1) - adjust;
+                        }
+                        row -= 0x20;
+                        column = 0x20;
+                        if (row < JPFreq.length && column < JPFreq[row].length
+                                && JPFreq[row][column] != 0) {
+                            freq += JPFreq[row][column];
+                        }
+                        i++;
                     }
-                    i++;
-                } else if ((byte) 0xA1 <= rawtext[i]
-                        && rawtext[i] <= (byte) 0xDF) {
-                    // half-width katakana, convert to full-width
                 }
             }
+            pos = i;
         }
-        rangeval = 50 * ((float) jpchars / (float) dbchars);
-        freqval = 50 * ((float) jpfreq / (float) totalfreq);
-        // For regular GB files, this would give the same score, so I handicap
-        // it slightly
-        return (int) (rangeval + freqval) - 1;
     }
 
-    void initialize_frequencies() {
+    private static void initialize_frequencies() {
         int i, j;
         for (i = 93; i >= 0; i--) {
             for (j = 93; j >= 0; j--) {
@@ -4744,19 +5030,16 @@ class Encoding {
     public final static int TRAD = 1;
 
     // Names of the encodings as understood by Java
-    public static String[] javaname;
+    public static final String[] javaname = new String[TOTALTYPES];
 
     // Names of the encodings for human viewing
-    public static String[] nicename;
+    public static final String[] nicename = new String[TOTALTYPES];
 
     // Names of charsets as used in charset parameter of HTML Meta tag
-    public static String[] htmlname;
+    public static final String[] htmlname = new String[TOTALTYPES];
 
-    // Constructor
-    public Encoding() {
-        javaname = new String[TOTALTYPES];
-        nicename = new String[TOTALTYPES];
-        htmlname = new String[TOTALTYPES];
+    // 名称表只在类加载时赋值一次, 多线程检测时不会读到未填充的数组
+    static {
         // Assign encoding names
         javaname[GB2312] = "GB2312";
         javaname[GBK] = "GBK";
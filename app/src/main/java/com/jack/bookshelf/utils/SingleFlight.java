@@ -0,0 +1,58 @@
+package com.jack.bookshelf.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+
+/**
+ * 合并同时进行的相同请求
+ * 同一个键的请求结束前, 之后的订阅共用这次请求的结果 (包括错误), 不再重新请求;
+ * 请求结束后移除, 之后的订阅重新请求. 请求开始后即使订阅者全部取消也会完成, 结果照常保存
+ */
+public class SingleFlight<T> {
+    private final Map<String, Observable<T>> requests = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    /**
+     * @param request 没有同一个键的请求时, 用来创建请求
+     */
+    public Observable<T> get(String key, Callable<Observable<T>> request) {
+        return Observable.defer(() -> {
+            requestCount.incrementAndGet();
+            Observable<T> shared = requests.get(key);
+            if (shared != null) {
+                sharedCount.incrementAndGet();
+                return shared;
+            }
+            // 在通知订阅者之前移除, 订阅者收到结果后再请求时一定重新请求
+            Observable<T> created = request.call()
+                    .doOnTerminate(() -> requests.remove(key))
+                    .cache();
+            shared = requests.putIfAbsent(key, created);
+            if (shared != null) {
+                sharedCount.incrementAndGet();
+                return shared;
+            }
+            return created;
+        });
+    }
+
+    /**
+     * 订阅次数, 共用已有请求的次数与正在进行的请求数
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        long total = requestCount.get();
+        long shared = sharedCount.get();
+        return "requests=" + total + " shared=" + shared
+                + " inFlight=" + requests.size()
+                + " sharedRate=" + (total == 0 ? 0 : shared * 100 / total) + "%";
+    }
+}
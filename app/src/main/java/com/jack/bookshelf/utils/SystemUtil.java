@@ -7,10 +7,30 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Build;
 import android.os.PowerManager;
 import android.provider.Settings;
 
+import java.util.Locale;
+
 public class SystemUtil {
+    // 墨水屏设备的厂商: 文石 BOOX, 掌阅 iReader
+    private static final String[] E_INK_MANUFACTURERS = {"ONYX", "BOOX", "IREADER"};
+
+    /**
+     * 是否是墨水屏设备(华为 MatePad Paper 及常见墨水屏阅读器)
+     */
+    public static boolean isEInkDevice() {
+        String manufacturer = Build.MANUFACTURER == null ? "" : Build.MANUFACTURER.toUpperCase(Locale.ROOT);
+        String model = Build.MODEL == null ? "" : Build.MODEL.toUpperCase(Locale.ROOT);
+        if (manufacturer.contains("HUAWEI") && model.startsWith("HMW-")) {
+            return true;
+        }
+        for (String eInkManufacturer : E_INK_MANUFACTURERS) {
+            if (manufacturer.contains(eInkManufacturer)) return true;
+        }
+        return false;
+    }
 
     public static int getScreenOffTime(Context context) {
         int screenOffTime = 0;
@@ -730,6 +730,15 @@ public class ReadBookActivity extends MBaseActivity<ReadBookContract.Presenter>
                         mPresenter.saveProgress();
                     }
 
+                    /**
+                     * @param chapters：已加载的章节目录
+                     */
+                    @Override
+                    public void onCategoryProgress(List<BookChapterBean> chapters) {
+                        mPresenter.upChapterList(chapters);
+                        mPresenter.getBookShelf().setChapterListSize(chapters.size());
+                    }
+
                     /**
                      * 总页数变化
                      */
@@ -902,10 +911,10 @@ public class ReadBookActivity extends MBaseActivity<ReadBookContract.Presenter>
         binding.cursorRight.setVisibility(View.VISIBLE);
         int ww = binding.cursorLeft.getWidth();
         if (binding.pageView.getFirstSelectTxtChar() != null) {
-            binding.cursorLeft.setX(binding.pageView.getFirstSelectTxtChar().getTopLeftPosition().x - ww);
-            binding.cursorLeft.setY(binding.pageView.getFirstSelectTxtChar().getBottomLeftPosition().y);
-            binding.cursorRight.setX(binding.pageView.getFirstSelectTxtChar().getBottomRightPosition().x);
-            binding.cursorRight.setY(binding.pageView.getFirstSelectTxtChar().getBottomRightPosition().y);
+            binding.cursorLeft.setX(binding.pageView.getFirstSelectTxtChar().getCharLeft() - ww);
+            binding.cursorLeft.setY(binding.pageView.getFirstSelectTxtChar().getCharBottom());
+            binding.cursorRight.setX(binding.pageView.getFirstSelectTxtChar().getCharRight());
+            binding.cursorRight.setY(binding.pageView.getFirstSelectTxtChar().getCharBottom());
         }
     }
 
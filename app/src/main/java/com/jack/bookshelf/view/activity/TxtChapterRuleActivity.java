@@ -9,7 +9,6 @@ import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.google.android.material.snackbar.Snackbar;
-import com.jack.bookshelf.DbHelper;
 import com.jack.bookshelf.MApplication;
 import com.jack.bookshelf.R;
 import com.jack.bookshelf.base.MBaseActivity;
@@ -179,7 +178,7 @@ public class TxtChapterRuleActivity extends MBaseActivity<TxtChapterRuleContract
         }
         List<TxtChapterRuleBean> ruleDefaultList = GsonUtils.parseJArray(json, TxtChapterRuleBean.class);
         if (ruleDefaultList != null) {
-            DbHelper.getDaoSession().getTxtChapterRuleBeanDao().insertOrReplaceInTx(ruleDefaultList);
+            TxtChapterRuleManager.save(ruleDefaultList);
             toast(R.string.import_success);
             refresh();
             preferences.edit()
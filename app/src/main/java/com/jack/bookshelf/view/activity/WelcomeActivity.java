@@ -13,6 +13,7 @@ import com.jack.bookshelf.R;
 import com.jack.bookshelf.bean.BookSourceBean;
 import com.jack.bookshelf.bean.TxtChapterRuleBean;
 import com.jack.bookshelf.databinding.ActivityWelcomeBinding;
+import com.jack.bookshelf.model.TxtChapterRuleManager;
 import com.jack.bookshelf.presenter.ReadBookPresenter;
 import com.jack.bookshelf.utils.GsonUtils;
 import com.jack.bookshelf.utils.IOUtils;
@@ -99,7 +100,7 @@ public class WelcomeActivity extends AppCompatActivity {
             }
             List<TxtChapterRuleBean> ruleDefaultList = GsonUtils.parseJArray(json, TxtChapterRuleBean.class);
             if (ruleDefaultList != null) {
-                DbHelper.getDaoSession().getTxtChapterRuleBeanDao().insertOrReplaceInTx(ruleDefaultList);
+                TxtChapterRuleManager.save(ruleDefaultList);
             }
             preferences.edit().putBoolean("importDefaultTxtRule", ruleDefaultList != null).apply();
         }
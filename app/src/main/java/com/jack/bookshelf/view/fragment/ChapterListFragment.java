@@ -20,6 +20,7 @@ import com.jack.bookshelf.bean.BookChapterBean;
 import com.jack.bookshelf.bean.BookContentBean;
 import com.jack.bookshelf.bean.BookShelfBean;
 import com.jack.bookshelf.bean.OpenChapterBean;
+import com.jack.bookshelf.bean.TwoDataBean;
 import com.jack.bookshelf.constant.RxBusTag;
 import com.jack.bookshelf.databinding.FragmentChapterListBinding;
 import com.jack.bookshelf.view.activity.CatalogActivity;
@@ -146,6 +147,17 @@ public class ChapterListFragment extends MBaseFragment<IPresenter> {
         }
     }
 
+    /**
+     * 本地书籍边分章边阅读时, 目录在打开后仍会增加章节
+     */
+    @Subscribe(thread = EventThread.MAIN_THREAD, tags = {@Tag(RxBusTag.CHAPTER_LIST_CHANGE)})
+    public void chapterListChange(TwoDataBean<String, List<BookChapterBean>> chapterList) {
+        if (binding != null && bookShelf != null && bookShelf.getNoteUrl().equals(chapterList.getData1())) {
+            chapterListAdapter.upChapterList(chapterList.getData2());
+            updateChapterInfo();
+        }
+    }
+
     /*private ReadChapterBookmarkPop getFatherView() {
         return (ReadChapterBookmarkPop) getView();
     }*/
@@ -34,7 +34,7 @@ public class ChapterListAdapter extends RecyclerView.Adapter<ChapterListAdapter.
 
     private final BookShelfBean bookShelfBean;
     private final OnItemClickListener itemClickListener;
-    private final List<BookChapterBean> allChapter;
+    private List<BookChapterBean> allChapter;
     private final List<BookChapterBean> bookChapterBeans = new ArrayList<>();
     private int index = 0;
     private boolean isSearch = false;
@@ -54,6 +54,25 @@ public class ChapterListAdapter extends RecyclerView.Adapter<ChapterListAdapter.
         }
     }
 
+    /**
+     * 更换目录, 只增加了章节时只刷新新增的部分
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    public void upChapterList(List<BookChapterBean> chapterList) {
+        int oldSize = allChapter == null ? 0 : allChapter.size();
+        allChapter = chapterList;
+        if (isSearch) return;
+        if (chapterList.size() > oldSize) {
+            if (oldSize > 0) {
+                // 原来的最后一项需要显示分隔线
+                notifyItemChanged(oldSize - 1);
+            }
+            notifyItemRangeInserted(oldSize, chapterList.size() - oldSize);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
     @SuppressLint("NotifyDataSetChanged")
     public void search(final String key) {
         bookChapterBeans.clear();
@@ -0,0 +1,165 @@
+package com.jack.bookshelf.widget.page;
+
+import android.os.Process;
+
+import com.jack.bookshelf.bean.BookChapterBean;
+import com.jack.bookshelf.utils.MD5Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 全书页码
+ * 在后台低优先级线程中对整本书逐章分页, 记录每章的页数
+ * 只有全部章节都能在本地读取时才计算(本地 TXT/EPUB, 或已全部缓存的网络书籍)
+ * 每本书的各章页数单独保存, 不写入分页缓存, 章节很多的书不会挤掉阅读时的分页缓存;
+ * 章节内容不经过阅读时的内容缓存, 排版参数使用开始计算时的副本
+ */
+final class BookPageCounter {
+    private static final int VERSION = 2;
+    // 最多保留页数的书籍数
+    private static final int MAX_BOOKS = 50;
+    private static final DiskLruDir pageCountCache = DiskLruDir.inCache("pageCount", MAX_BOOKS);
+    private final PageLoader pageLoader;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            r.run();
+        }, "BookPageCounter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> task;
+    private AtomicBoolean cancelled;
+    // 计算所用的排版参数与章节数
+    private String fingerprint;
+    // 每章第一页在全书中的序号, 最后一项为全书页数, 计算完成前为 null
+    private volatile int[] chapterPageStarts;
+
+    BookPageCounter(PageLoader pageLoader) {
+        this.pageLoader = pageLoader;
+    }
+
+    /**
+     * 开始计算, 排版参数和章节数未改变时不会重复计算
+     */
+    synchronized void start(List<BookChapterBean> chapters) {
+        if (chapters.isEmpty() || pageLoader.book.isAudio()) return;
+        // 计算期间使用开始时的排版参数
+        ChapterProvider.LayoutConfig layoutConfig = ChapterProvider.LayoutConfig.snapshot(pageLoader);
+        String fingerprint = layoutConfig.fingerprint + "," + chapters.size();
+        if (fingerprint.equals(this.fingerprint)) return;
+        cancel();
+        this.fingerprint = fingerprint;
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        this.cancelled = cancelled;
+        List<BookChapterBean> chapterList = new ArrayList<>(chapters);
+        String cacheKey = MD5Utils.strToMd5By32(pageLoader.book.getNoteUrl() + "\n" + fingerprint);
+        task = executor.submit(() -> count(chapterList, layoutConfig, cacheKey, cancelled));
+    }
+
+    /**
+     * 取消计算并清除结果
+     */
+    synchronized void cancel() {
+        if (cancelled != null) {
+            cancelled.set(true);
+            cancelled = null;
+        }
+        if (task != null) {
+            task.cancel(true);
+            task = null;
+        }
+        fingerprint = null;
+        chapterPageStarts = null;
+    }
+
+    void release() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return 全书页数, 尚未计算完成时为 0
+     */
+    int getTotalPages() {
+        int[] starts = chapterPageStarts;
+        return starts == null ? 0 : starts[starts.length - 1];
+    }
+
+    /**
+     * @return 章节中的页在全书中的序号, 尚未计算完成时为 -1
+     */
+    int getPageIndex(int chapterPos, int pagePos) {
+        int[] starts = chapterPageStarts;
+        if (starts == null || chapterPos < 0 || chapterPos >= starts.length - 1) return -1;
+        int chapterPages = starts[chapterPos + 1] - starts[chapterPos];
+        return starts[chapterPos] + Math.max(0, Math.min(pagePos, chapterPages - 1));
+    }
+
+    private void count(List<BookChapterBean> chapters, ChapterProvider.LayoutConfig layoutConfig, String cacheKey, AtomicBoolean cancelled) {
+        for (BookChapterBean chapter : chapters) {
+            if (cancelled.get()) return;
+            // 有章节不在本地, 无法计算全书页码
+            if (pageLoader.noChapterData(chapter)) return;
+        }
+        Map<String, Integer> savedCounts = readPageCounts(cacheKey);
+        Map<String, Integer> pageCounts = new HashMap<>();
+        ChapterProvider chapterProvider = new ChapterProvider(pageLoader, layoutConfig);
+        int[] starts = new int[chapters.size() + 1];
+        for (int i = 0; i < chapters.size(); i++) {
+            if (cancelled.get() || Thread.currentThread().isInterrupted()) return;
+            if (layoutChanged(layoutConfig, cancelled)) return;
+            int pageCount = chapterProvider.countPages(chapters.get(i), savedCounts, pageCounts);
+            // 出错的章节显示为一页
+            starts[i + 1] = starts[i] + Math.max(1, pageCount);
+        }
+        if (cancelled.get() || layoutChanged(layoutConfig, cancelled)) return;
+        // 只保存本次用到的章节, 已修改或删除的章节不再保留
+        pageCountCache.write(cacheKey, out -> {
+            out.writeInt(VERSION);
+            out.writeInt(pageCounts.size());
+            for (Map.Entry<String, Integer> entry : pageCounts.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        });
+        synchronized (this) {
+            if (cancelled.get()) return;
+            chapterPageStarts = starts;
+        }
+        pageLoader.mPageView.post(pageLoader::onBookPagesCounted);
+    }
+
+    /**
+     * 排版参数已改变时结果作废, 清除记录的参数, 下次 start 时重新计算
+     */
+    private boolean layoutChanged(ChapterProvider.LayoutConfig layoutConfig, AtomicBoolean cancelled) {
+        if (layoutConfig.fingerprint.equals(pageLoader.getLayoutFingerprint())) return false;
+        synchronized (this) {
+            if (!cancelled.get()) {
+                fingerprint = null;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, Integer> readPageCounts(String cacheKey) {
+        Map<String, Integer> pageCounts = pageCountCache.read(cacheKey, in -> {
+            if (in.readInt() != VERSION) return null;
+            int count = in.readInt();
+            Map<String, Integer> map = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                map.put(in.readUTF(), in.readInt());
+            }
+            return map;
+        });
+        return pageCounts == null ? new HashMap<>() : pageCounts;
+    }
+}
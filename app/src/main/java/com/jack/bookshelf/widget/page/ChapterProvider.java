@@ -2,6 +2,7 @@ package com.jack.bookshelf.widget.page;
 
 import android.text.Layout;
 import android.text.StaticLayout;
+import android.text.TextPaint;
 
 import androidx.annotation.NonNull;
 
@@ -11,16 +12,47 @@ import com.jack.bookshelf.help.ChapterContentHelp;
 import com.jack.bookshelf.utils.NetworkUtils;
 import com.jack.bookshelf.utils.StringUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 
 class ChapterProvider {
+    // 首次发布之后, 每新增多少页发布一次
+    private static final int PUBLISH_STEP = 16;
     private final PageLoader pageLoader;
+    // 固定的排版参数, 为 null 时使用阅读界面当前的参数
+    private final LayoutConfig layoutConfig;
     private final ChapterContentHelp contentHelper = new ChapterContentHelp();
+    private PageListener pageListener;
+    private int targetPage;
+    private int publishedSize;
+    private volatile boolean cancelled;
 
     ChapterProvider(PageLoader pageLoader) {
+        this(pageLoader, null);
+    }
+
+    ChapterProvider(PageLoader pageLoader, LayoutConfig layoutConfig) {
         this.pageLoader = pageLoader;
+        this.layoutConfig = layoutConfig;
+    }
+
+    /**
+     * 取消分页, 正在进行的分页在下一段落处结束, 结果不会写入缓存
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 逐步分页, 目标页排好后立即发布已排好的页面, 之后每隔 PUBLISH_STEP 页发布一次
+     * @param targetPage 需要最先显示的页
+     * @param pageListener 接收未完成的章节, 在分页线程中回调
+     * @return 分页完成的章节
+     */
+    TxtChapter dealLoadPageList(BookChapterBean chapter, boolean isPrepare, int targetPage, PageListener pageListener) {
+        this.targetPage = Math.max(0, targetPage);
+        this.pageListener = pageListener;
+        this.publishedSize = 0;
+        return dealLoadPageList(chapter, isPrepare);
     }
 
     TxtChapter dealLoadPageList(BookChapterBean chapter, boolean isPrepare) {
@@ -49,6 +81,44 @@ class ChapterProvider {
         return loadPageList(chapter, content);
     }
 
+    /**
+     * 只计算章节页数, 用于全书页码
+     * 不读写分页缓存, 以免逐章计算整本书时挤掉阅读时的分页缓存
+     * @param savedCounts 已保存的正文键与页数, 命中时不再排版
+     * @param pageCounts 写入本章的正文键与页数
+     * @return 页数, 读取出错时为 0
+     */
+    int countPages(BookChapterBean chapter, Map<String, Integer> savedCounts, Map<String, Integer> pageCounts) {
+        String content;
+        try {
+            content = pageLoader.getChapterContentForCount(chapter);
+        } catch (Exception e) {
+            return 0;
+        }
+        if (content == null) return 0;
+        LayoutConfig config = getLayoutConfig();
+        ChapterText chapterText = new ChapterText(config, chapter, content);
+        String key = PageBreakCache.getKey(chapterText.text, config.fingerprint);
+        Integer pageCount = savedCounts.get(key);
+        if (pageCount == null) {
+            pageCount = layoutPages(config, chapterText.text, chapterText.paragraphEnds, chapterText.paragraphCount, new PageBreaker.Listener() {
+                @Override
+                public void onPageEnd(PageBreakCache.PageBreaks pageBreaks, int page) {
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return cancelled;
+                }
+            }).getPageCount();
+            if (cancelled) return 0;
+        }
+        if (pageCount > 0) {
+            pageCounts.put(key, pageCount);
+        }
+        return pageCount;
+    }
+
     /**
      * 将章节数据，解析成页面列表
      * @param chapter：章节信息
@@ -70,126 +140,44 @@ class ChapterProvider {
             txtChapter.addPage(page);
             return txtChapter;
         }
-        content = contentHelper.replaceContent(pageLoader.book.getBookInfoBean().getName(), pageLoader.book.getTag(), content, pageLoader.book.getReplaceEnable());
-        String[] allLine = content.split("\n");
-        List<String> lines = new ArrayList<>();
-        List<TxtLine> txtLists = new ArrayList<>(); // 记录每个字的位置
-        int rHeight = pageLoader.mVisibleHeight - pageLoader.contentMarginHeight * 2;
-        int titleLinesCount = 0;
-        boolean ifShowTitle = true;
-        String paragraph = contentHelper.replaceContent(pageLoader.book.getBookInfoBean().getName(), pageLoader.book.getTag(), chapter.getDurChapterName(), pageLoader.book.getReplaceEnable());
-        paragraph = paragraph.trim() + "\n";
-        int i = 1;
-        while (ifShowTitle || i < allLine.length) {
-            // 在显示完标题后重置段落
-            if (!ifShowTitle) {
-                paragraph = allLine[i].replaceAll("\\s", " ").trim();
-                i++;
-                if (paragraph.equals("")) continue;
-                paragraph = pageLoader.indent + paragraph + "\n";
+        LayoutConfig config = getLayoutConfig();
+        ChapterText chapterText = new ChapterText(config, chapter, content);
+        String text = chapterText.text;
+        int[] paragraphEnds = chapterText.paragraphEnds;
+        int paragraphCount = chapterText.paragraphCount;
+        for (int i = 0; i < paragraphCount; i++) {
+            addParagraphLength(txtChapter, paragraphEnds[i] - (i == 0 ? 0 : paragraphEnds[i - 1]));
+        }
+
+        String cacheKey = PageBreakCache.getKey(text, config.fingerprint);
+        PageBreakCache.PageBreaks pageBreaks = PageBreakCache.get(cacheKey);
+        if (pageBreaks != null) {
+            // 排版参数与正文都未改变, 按缓存的位置重建页面
+            // 按缓存重建很快, 完成后一次发布, 不逐步发布
+            for (int i = 0; i < pageBreaks.getPageCount() && !cancelled; i++) {
+                addPage(txtChapter, chapter, text, pageBreaks, i);
             }
-            addParagraphLength(txtChapter, paragraph.length());
-            int wordCount;
-            String subStr;
-            while (paragraph.length() > 0) {
-                // 当前空间，是否容得下一行文字
-                if (ifShowTitle) {  // 本行显示标题
-                    rHeight -= pageLoader.mTitlePaint.getTextSize();
-                } else {    // 本行显示正文
-                    rHeight -= pageLoader.mTextPaint.getTextSize();
-                }
-                // 一页已经填充满了，创建 TextPage
-                if (rHeight <= 0) {
-                    // 创建Page
-                    TxtPage page = new TxtPage(txtChapter.getTxtPageList().size());
-                    page.setTitle(chapter.getDurChapterName());
-                    page.addLines(lines);
-                    page.setTxtLists(new ArrayList<>(txtLists));
-                    page.setTitleLines(titleLinesCount);
-                    txtChapter.addPage(page);
-                    addTxtPageLength(txtChapter, page.getContent().length());
-                    // 重置Lines
-                    lines.clear();
-                    txtLists.clear();//pzl
-                    rHeight = pageLoader.mVisibleHeight - pageLoader.contentMarginHeight * 2;
-                    titleLinesCount = 0;
-                    continue;
-                }
-                // 测量一行占用的字节数
-                Layout tempLayout;
-                if (ifShowTitle) {
-                    tempLayout = StaticLayout.Builder.obtain(paragraph, 0, paragraph.length(), pageLoader.mTitlePaint, pageLoader.mVisibleWidth)
-                            .setAlignment(Layout.Alignment.ALIGN_NORMAL)
-                            .setLineSpacing(0, 0)
-                            .setIncludePad(false).build();
-                } else {
-                    tempLayout = StaticLayout.Builder.obtain(paragraph, 0, paragraph.length(), pageLoader.mTextPaint, pageLoader.mVisibleWidth)
-                            .setAlignment(Layout.Alignment.ALIGN_NORMAL)
-                            .setLineSpacing(0, 0)
-                            .setIncludePad(false).build();
-                }
-                wordCount = tempLayout.getLineEnd(0);
-                // 取用能在一行显示下的字
-                subStr = paragraph.substring(0, wordCount);
-                // 显示所取用的内容
-                if (!subStr.equals("\n")) {
-                    // 将一行字节，存储到lines中
-                    lines.add(subStr);
-                    //begin pzl
-                    // 记录每个字的位置
-                    char[] cs = subStr.toCharArray();
-                    TxtLine txtList = new TxtLine();//每一行
-                    txtList.setCharsData(new ArrayList<>());
-                    for (char c : cs) {
-                        String charValue = String.valueOf(c);
-                        float charWidth = pageLoader.mTextPaint.measureText(charValue);
-                        if (ifShowTitle) {
-                            charWidth = pageLoader.mTitlePaint.measureText(charValue);
-                        }
-                        TxtChar txtChar = new TxtChar();
-                        txtChar.setChardata(c);
-                        txtChar.setCharWidth(charWidth);    // 字宽
-                        txtChar.setIndex(66);   // 每页每个字的位置
-                        Objects.requireNonNull(txtList.getCharsData()).add(txtChar);
-                    }
-                    txtLists.add(txtList);
-                    // end pzl
-                    // 设置段落间距
-                    if (ifShowTitle) {
-                        titleLinesCount += 1;
-                        rHeight -= pageLoader.mTitleInterval;
-                    } else {
-                        rHeight -= pageLoader.mTextInterval;
-                    }
+        } else {
+            pageBreaks = layoutPages(config, text, paragraphEnds, paragraphCount, new PageBreaker.Listener() {
+                @Override
+                public void onPageEnd(PageBreakCache.PageBreaks pageBreaks, int page) {
+                    addPage(txtChapter, chapter, text, pageBreaks, page);
+                    publishPages(txtChapter);
                 }
-                //裁剪
-                paragraph = paragraph.substring(wordCount);
-            }
 
-            // 增加段落的间距
-            if (!ifShowTitle && lines.size() != 0) {
-                rHeight = rHeight - pageLoader.mTextPara + pageLoader.mTextInterval;
+                @Override
+                public boolean isCancelled() {
+                    return cancelled;
+                }
+            });
+            // 最后一页
+            for (int i = txtChapter.getPageSize(); i < pageBreaks.getPageCount() && !cancelled; i++) {
+                addPage(txtChapter, chapter, text, pageBreaks, i);
             }
-
-            if (ifShowTitle) {  //标题绘制完成
-                rHeight = rHeight - pageLoader.mTitlePara + pageLoader.mTitleInterval;
-                ifShowTitle = false;
+            if (txtChapter.getPageSize() > 0 && !cancelled) {
+                PageBreakCache.put(cacheKey, pageBreaks);
             }
         }
-
-        if (lines.size() != 0) {
-            //创建Page
-            TxtPage page = new TxtPage(txtChapter.getTxtPageList().size());
-            page.setTitle(chapter.getDurChapterName());
-            page.addLines(lines);
-            page.setTxtLists(new ArrayList<>(txtLists));
-            page.setTitleLines(titleLinesCount);
-            txtChapter.addPage(page);
-            addTxtPageLength(txtChapter, page.getContent().length());
-            //重置Lines
-            lines.clear();
-            txtLists.clear();
-        }
         if (txtChapter.getPageSize() > 0) {
             txtChapter.setStatus(TxtChapter.Status.FINISH);
         } else {
@@ -199,6 +187,74 @@ class ChapterProvider {
         return txtChapter;
     }
 
+    /**
+     * 排版整理后的正文
+     * @param text 本章正文, 第一段为标题
+     * @param paragraphEnds 每段在正文中的结束位置
+     * @return 每页每行在正文中的位置
+     */
+    private PageBreakCache.PageBreaks layoutPages(LayoutConfig config, String text, int[] paragraphEnds, int paragraphCount, PageBreaker.Listener listener) {
+        return new PageBreaker(config.metrics, (paragraph, isTitle) -> breakLines(config, paragraph, isTitle))
+                .layout(text, paragraphEnds, paragraphCount, listener);
+    }
+
+    /**
+     * 整段排版一次, 取出每行的结束位置
+     */
+    private static int[] breakLines(LayoutConfig config, String paragraph, boolean isTitle) {
+        TextPaint paint = isTitle ? config.titlePaint : config.textPaint;
+        Layout paragraphLayout = StaticLayout.Builder.obtain(paragraph, 0, paragraph.length(), paint, config.visibleWidth)
+                .setAlignment(Layout.Alignment.ALIGN_NORMAL)
+                .setBreakStrategy(Layout.BREAK_STRATEGY_SIMPLE)
+                .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                .setLineSpacing(0, 0)
+                .setIncludePad(false).build();
+        int[] lineEnds = new int[paragraphLayout.getLineCount()];
+        for (int i = 0; i < lineEnds.length; i++) {
+            lineEnds[i] = paragraphLayout.getLineEnd(i);
+        }
+        return lineEnds;
+    }
+
+    /**
+     * 按分页结果创建第 page 页
+     */
+    private void addPage(TxtChapter txtChapter, BookChapterBean chapter, String text, PageBreakCache.PageBreaks pageBreaks, int page) {
+        TxtPage txtPage = new TxtPage(txtChapter.getTxtPageList().size());
+        txtPage.setTitle(chapter.getDurChapterName());
+        int lineStart = pageBreaks.getPageLineStart(page);
+        int lineEnd = pageBreaks.getPageLineEnd(page);
+        int charCount = 0;
+        for (int j = lineStart; j < lineEnd; j++) {
+            txtPage.addLine(text.substring(pageBreaks.getLineStart(j), pageBreaks.getLineEnd(j)));
+            charCount += pageBreaks.getLineEnd(j) - pageBreaks.getLineStart(j);
+        }
+        // 记录每个字的宽度
+        float[] charWidths = new float[charCount];
+        charCount = 0;
+        for (int j = 0; j < txtPage.size(); j++) {
+            GlyphWidthCache widthCache = j < pageBreaks.getTitleLines(page) ? pageLoader.mTitleWidthCache : pageLoader.mTextWidthCache;
+            String line = txtPage.getLine(j);
+            for (int k = 0; k < line.length(); k++) {
+                charWidths[charCount++] = widthCache.getWidth(line.charAt(k));
+            }
+        }
+        txtPage.setCharWidths(charWidths);
+        txtPage.setTitleLines(pageBreaks.getTitleLines(page));
+        txtChapter.addPage(txtPage);
+        addTxtPageLength(txtChapter, txtPage.getContent().length());
+    }
+
+    /**
+     * 发布已排好的页面
+     */
+    private void publishPages(TxtChapter txtChapter) {
+        if (pageListener == null || cancelled || txtChapter.getPageSize() <= targetPage) return;
+        if (publishedSize > 0 && txtChapter.getPageSize() - publishedSize < PUBLISH_STEP) return;
+        publishedSize = txtChapter.getPageSize();
+        pageListener.onPagesReady(txtChapter.snapshot());
+    }
+
     private void addTxtPageLength(TxtChapter txtChapter, int length) {
         if (txtChapter.getTxtPageLengthList().isEmpty()) {
             txtChapter.addTxtPageLength(length);
@@ -214,4 +270,80 @@ class ChapterProvider {
             txtChapter.addParagraphLength(txtChapter.getParagraphLengthList().get(txtChapter.getParagraphLengthList().size() - 1) + length);
         }
     }
+
+    /**
+     * 整理后的本章正文, 第一段为标题, 段落首尾相接
+     */
+    private final class ChapterText {
+        private final String text;
+        // 每段在正文中的结束位置
+        private final int[] paragraphEnds;
+        private int paragraphCount;
+
+        ChapterText(LayoutConfig config, BookChapterBean chapter, String content) {
+            content = contentHelper.replaceContent(pageLoader.book.getBookInfoBean().getName(), pageLoader.book.getTag(), content, pageLoader.book.getReplaceEnable());
+            String[] allLine = content.split("\n");
+            String title = contentHelper.replaceContent(pageLoader.book.getBookInfoBean().getName(), pageLoader.book.getTag(), chapter.getDurChapterName(), pageLoader.book.getReplaceEnable());
+            StringBuilder textBuilder = new StringBuilder(content.length() + title.length() + allLine.length * config.indent.length());
+            paragraphEnds = new int[allLine.length + 1];
+            textBuilder.append(title.trim()).append('\n');
+            paragraphEnds[paragraphCount++] = textBuilder.length();
+            for (int i = 1; i < allLine.length; i++) {
+                String paragraph = allLine[i].replaceAll("\\s", " ").trim();
+                if (paragraph.equals("")) continue;
+                textBuilder.append(config.indent).append(paragraph).append('\n');
+                paragraphEnds[paragraphCount++] = textBuilder.length();
+            }
+            text = textBuilder.toString();
+        }
+    }
+
+    private LayoutConfig getLayoutConfig() {
+        return layoutConfig != null ? layoutConfig : LayoutConfig.of(pageLoader);
+    }
+
+    /**
+     * 分页所用的排版参数
+     */
+    static final class LayoutConfig {
+        // 与 PageLoader.getLayoutFingerprint 相同
+        final String fingerprint;
+        final PageBreaker.Metrics metrics;
+        final TextPaint titlePaint;
+        final TextPaint textPaint;
+        final int visibleWidth;
+        final String indent;
+
+        private LayoutConfig(PageLoader pageLoader, TextPaint titlePaint, TextPaint textPaint) {
+            this.fingerprint = pageLoader.getLayoutFingerprint();
+            this.metrics = new PageBreaker.Metrics(pageLoader.mVisibleHeight - pageLoader.contentMarginHeight * 2,
+                    titlePaint.getTextSize(), textPaint.getTextSize(),
+                    pageLoader.mTitleInterval, pageLoader.mTextInterval, pageLoader.mTitlePara, pageLoader.mTextPara);
+            this.titlePaint = titlePaint;
+            this.textPaint = textPaint;
+            this.visibleWidth = pageLoader.mVisibleWidth;
+            this.indent = pageLoader.indent;
+        }
+
+        /**
+         * 使用阅读界面的画笔, 排版参数改变时由分页调度取消正在进行的分页
+         */
+        static LayoutConfig of(PageLoader pageLoader) {
+            return new LayoutConfig(pageLoader, pageLoader.mTitlePaint, pageLoader.mTextPaint);
+        }
+
+        /**
+         * 复制当前的排版参数与画笔, 在后台线程中使用时不受之后设置改变的影响, 须在主线程调用
+         */
+        static LayoutConfig snapshot(PageLoader pageLoader) {
+            return new LayoutConfig(pageLoader, new TextPaint(pageLoader.mTitlePaint), new TextPaint(pageLoader.mTextPaint));
+        }
+    }
+
+    interface PageListener {
+        /**
+         * @param txtChapter 分页未完成的章节
+         */
+        void onPagesReady(TxtChapter txtChapter);
+    }
 }
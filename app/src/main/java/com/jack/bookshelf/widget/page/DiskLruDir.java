@@ -0,0 +1,172 @@
+package com.jack.bookshelf.widget.page;
+
+import com.jack.bookshelf.help.FileHelp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 缓存目录, 每个键一个文件, 按最近使用时间最多保留 maxEntries 个
+ * 写入时先写各自的临时文件再改名, 崩溃或同时读写同一个键时不会读到写了一半的文件;
+ * 读写文件不加锁, 只有文件数的统计加锁
+ */
+final class DiskLruDir {
+    private static final String TEMP_SUFFIX = ".tmp";
+    // 超过这个时间的临时文件是崩溃时遗留的
+    private static final long STALE_TEMP_MILLIS = 60 * 1000;
+
+    private final File dir;
+    private final int maxEntries;
+    // 文件数超过该值时才清理, 不必每次写入都列出目录
+    private final int trimThreshold;
+    // 目录中的文件数, 写入同一个键时会多计, 清理时重新统计; 未统计时为 -1
+    private int entryCount = -1;
+    private boolean trimming;
+
+    DiskLruDir(File dir, int maxEntries) {
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+        this.trimThreshold = maxEntries + Math.max(1, maxEntries / 10);
+    }
+
+    /**
+     * 应用缓存目录下的子目录
+     */
+    static DiskLruDir inCache(String name, int maxEntries) {
+        return new DiskLruDir(new File(FileHelp.getCachePath(), name), maxEntries);
+    }
+
+    /**
+     * 读取缓存, 不存在、读取出错或 reader 返回 null 时删除文件并返回 null
+     */
+    <T> T read(String key, Reader<T> reader) {
+        if (key == null) return null;
+        File file = new File(dir, key);
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            T value = reader.read(in);
+            if (value != null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+                return value;
+            }
+        } catch (IOException ignored) {
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return null;
+    }
+
+    void write(String key, Writer writer) {
+        if (key == null) return;
+        if (!dir.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            dir.mkdirs();
+        }
+        File temp;
+        try {
+            temp = File.createTempFile(key + "-", TEMP_SUFFIX, dir);
+        } catch (IOException e) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            writer.write(out);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(dir, key))) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (startTrim()) {
+            trim();
+        }
+    }
+
+    /**
+     * 记录写入的文件, 超出清理阈值且没有其他线程在清理时返回 true
+     */
+    private synchronized boolean startTrim() {
+        if (entryCount >= 0) {
+            entryCount++;
+        }
+        if (trimming || (entryCount >= 0 && entryCount <= trimThreshold)) return false;
+        trimming = true;
+        return true;
+    }
+
+    private synchronized void endTrim(int count) {
+        entryCount = count;
+        trimming = false;
+    }
+
+    /**
+     * 删除最久未使用的文件, 保留 maxEntries 个, 崩溃时遗留的临时文件最先删除
+     * 每个文件只读取一次修改时间
+     */
+    private void trim() {
+        int count = -1;
+        try {
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            long now = System.currentTimeMillis();
+            List<Entry> entries = new ArrayList<>(files.length);
+            for (File file : files) {
+                long lastModified = file.lastModified();
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    // 其他线程正在写入的临时文件不删除, 也不计数
+                    if (now - lastModified > STALE_TEMP_MILLIS) {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                    continue;
+                }
+                entries.add(new Entry(file, lastModified));
+            }
+            Collections.sort(entries);
+            count = entries.size();
+            for (int i = 0; i < entries.size() - maxEntries; i++) {
+                if (entries.get(i).file.delete()) {
+                    count--;
+                }
+            }
+        } finally {
+            endTrim(count);
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final File file;
+        private final long lastModified;
+
+        Entry(File file, long lastModified) {
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(lastModified, o.lastModified);
+        }
+    }
+
+    interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,378 @@
+package com.jack.bookshelf.widget.page;
+
+import android.text.TextUtils;
+
+import com.jack.bookshelf.help.FileHelp;
+import com.jack.bookshelf.utils.MD5Utils;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * EPUB 随机读取
+ * 打开时只解析 container.xml、OPF 与目录 (NCX 或 EPUB3 nav), 之后按需从 ZipFile 中读取单个章节
+ * 章节转换后的纯文本缓存在磁盘上, 每本书一个以 文件路径 + 大小 + 修改时间 为名的 DiskLruDir,
+ * 再次打开或重新分页时不再解压和解析 XHTML
+ * 关闭时正在读取章节的线程读完后才关闭 ZipFile, 关闭后的读取抛出 IOException
+ * 章节地址与 epublib 一致, 为相对 OPF 所在目录的路径, 已保存的目录可以继续使用
+ */
+final class EpubArchive implements Closeable {
+    // 最多保留缓存的书籍数
+    private static final int MAX_BOOKS = 20;
+    // 每本书最多保留缓存的章节数
+    private static final int MAX_CHAPTERS = 2000;
+    private static final String CACHE_DIR = "epubText";
+    // 文本转换方式改变时增加, 使旧的缓存失效
+    private static final int TEXT_VERSION = 2;
+
+    private final ZipFile zipFile;
+    private final File cacheDir;
+    private final DiskLruDir textCache;
+    // 正在读取 ZipFile 的线程数
+    private int readers;
+    private boolean closed;
+    // OPF 所在目录, 以 / 结尾
+    private String opfDir = "";
+    private String title;
+    private final List<String> authors = new ArrayList<>();
+    private String description;
+    private final List<TocItem> toc = new ArrayList<>();
+    private final List<String> spine = new ArrayList<>();
+
+    private EpubArchive(File file) throws IOException {
+        this.zipFile = new ZipFile(file);
+        String key = MD5Utils.strToMd5By16(file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified());
+        this.cacheDir = new File(getCacheRoot(), key);
+        this.textCache = new DiskLruDir(cacheDir, MAX_CHAPTERS);
+    }
+
+    static EpubArchive open(File file) throws IOException {
+        EpubArchive archive = new EpubArchive(file);
+        try {
+            archive.readPackage();
+        } catch (IOException | RuntimeException e) {
+            archive.close();
+            throw e;
+        }
+        archive.prepareCache();
+        return archive;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    List<String> getAuthors() {
+        return authors;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return 按阅读顺序展开的目录, 只包含能找到文件的条目
+     */
+    List<TocItem> getToc() {
+        return toc;
+    }
+
+    /**
+     * @return spine 中各章节的地址
+     */
+    List<String> getSpine() {
+        return spine;
+    }
+
+    /**
+     * 读取章节文件中的 title, 只读到 head 结束, 不解析正文
+     */
+    String getChapterTitle(String href, Charset charset) throws IOException {
+        acquire();
+        try {
+            ZipEntry entry = getEntry(href);
+            if (entry == null) return null;
+            try (Reader reader = new InputStreamReader(zipFile.getInputStream(entry), charset)) {
+                return EpubTextExtractor.readTitle(reader);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 章节的纯文本, 优先从磁盘缓存读取
+     */
+    String getChapterText(String href, Charset charset) throws IOException {
+        String key = MD5Utils.strToMd5By16(removeFragment(href) + "\n" + charset.name() + "\n" + TEXT_VERSION);
+        String text = textCache.read(key, in -> {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        });
+        if (text != null) return text;
+        acquire();
+        try {
+            ZipEntry entry = getEntry(href);
+            if (entry == null) {
+                throw new IOException("Missing epub entry: " + href);
+            }
+            try (Reader reader = new InputStreamReader(zipFile.getInputStream(entry), charset)) {
+                text = EpubTextExtractor.extract(reader);
+            }
+        } finally {
+            release();
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        textCache.write(key, out -> {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        });
+        return text;
+    }
+
+    /**
+     * 关闭后不再读取, 正在读取的线程读完后关闭 ZipFile
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (readers == 0) {
+            zipFile.close();
+        }
+    }
+
+    private synchronized void acquire() throws IOException {
+        if (closed) throw new IOException("Epub archive closed");
+        readers++;
+    }
+
+    private synchronized void release() throws IOException {
+        readers--;
+        if (readers == 0 && closed) {
+            zipFile.close();
+        }
+    }
+
+    private void readPackage() throws IOException {
+        Document container = parseXml("META-INF/container.xml");
+        Element rootFile = container == null ? null : first(container, "rootfile");
+        if (rootFile == null || TextUtils.isEmpty(rootFile.attr("full-path"))) {
+            throw new IOException("Missing epub rootfile");
+        }
+        String opfPath = decode(rootFile.attr("full-path"));
+        opfDir = opfPath.contains("/") ? opfPath.substring(0, opfPath.lastIndexOf('/') + 1) : "";
+        Document opf = parseXml(opfPath);
+        if (opf == null) {
+            throw new IOException("Missing epub package: " + opfPath);
+        }
+        // metadata
+        Element titleElement = first(opf, "title");
+        title = titleElement == null ? null : titleElement.text();
+        for (Element creator : findAll(opf, "creator")) {
+            authors.add(creator.text());
+        }
+        Element descriptionElement = first(opf, "description");
+        description = descriptionElement == null ? null : descriptionElement.text();
+        // manifest
+        Map<String, String> hrefs = new HashMap<>();
+        String navHref = null;
+        for (Element item : findAll(opf, "item")) {
+            String href = resolve(opfDir, decode(item.attr("href")));
+            hrefs.put(item.attr("id"), href);
+            if (Arrays.asList(item.attr("properties").split("\\s+")).contains("nav")) {
+                navHref = href;
+            }
+        }
+        // spine
+        Element spineElement = first(opf, "spine");
+        for (Element itemRef : findAll(opf, "itemref")) {
+            String href = hrefs.get(itemRef.attr("idref"));
+            if (href != null) {
+                spine.add(toOpfRelative(href));
+            }
+        }
+        // 目录, 优先使用 NCX
+        String ncxHref = spineElement == null ? null : hrefs.get(spineElement.attr("toc"));
+        if (ncxHref != null) {
+            readNcx(ncxHref);
+        }
+        if (toc.isEmpty() && navHref != null) {
+            readNav(navHref);
+        }
+    }
+
+    private void readNcx(String path) throws IOException {
+        Document ncx = parseXml(path);
+        if (ncx == null) return;
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        for (Element navPoint : findAll(ncx, "navPoint")) {
+            Element label = null;
+            Element content = null;
+            for (Element child : navPoint.children()) {
+                String name = localName(child);
+                if (label == null && name.equals("navLabel")) label = child;
+                if (content == null && name.equals("content")) content = child;
+            }
+            if (content != null) {
+                addTocItem(label == null ? "" : label.text(), dir, content.attr("src"));
+            }
+        }
+    }
+
+    private void readNav(String path) throws IOException {
+        Document nav = parseXml(path);
+        if (nav == null) return;
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        for (Element element : findAll(nav, "nav")) {
+            if (!element.attr("epub:type").equals("toc")) continue;
+            for (Element link : findAll(element, "a")) {
+                if (link.hasAttr("href")) {
+                    addTocItem(link.text(), dir, link.attr("href"));
+                }
+            }
+            break;
+        }
+    }
+
+    private void addTocItem(String title, String dir, String src) {
+        String href = resolve(dir, decode(src));
+        if (getEntry(toOpfRelative(href)) != null) {
+            toc.add(new TocItem(title, toOpfRelative(href)));
+        }
+    }
+
+    private Document parseXml(String path) throws IOException {
+        ZipEntry entry = zipFile.getEntry(path);
+        if (entry == null) return null;
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return Jsoup.parse(in, "UTF-8", "", Parser.xmlParser());
+        }
+    }
+
+    private ZipEntry getEntry(String href) {
+        String path = removeFragment(href);
+        ZipEntry entry = zipFile.getEntry(opfDir + path);
+        return entry != null ? entry : zipFile.getEntry(path);
+    }
+
+    private String toOpfRelative(String path) {
+        return path.startsWith(opfDir) ? path.substring(opfDir.length()) : path;
+    }
+
+    private void prepareCache() {
+        if (cacheDir.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            cacheDir.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        cacheDir.mkdirs();
+        trim(cacheDir.getParentFile());
+    }
+
+    /**
+     * 超出数量时删除最久未打开的书籍缓存
+     */
+    private static void trim(File root) {
+        File[] dirs = root == null ? null : root.listFiles();
+        if (dirs == null || dirs.length <= MAX_BOOKS) return;
+        Arrays.sort(dirs, (o1, o2) -> Long.compare(o1.lastModified(), o2.lastModified()));
+        for (int i = 0; i < dirs.length - MAX_BOOKS; i++) {
+            FileHelp.deleteFile(dirs[i].getAbsolutePath());
+        }
+    }
+
+    private static File getCacheRoot() {
+        return FileHelp.getFolder(FileHelp.getCachePath() + File.separator + CACHE_DIR);
+    }
+
+    private static Element first(Element root, String localName) {
+        List<Element> elements = findAll(root, localName);
+        return elements.isEmpty() ? null : elements.get(0);
+    }
+
+    /**
+     * 按本地名查找元素, 忽略 dc: 等命名空间前缀
+     */
+    private static List<Element> findAll(Element root, String localName) {
+        List<Element> result = new ArrayList<>();
+        for (Element element : root.getAllElements()) {
+            if (localName(element).equals(localName)) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    private static String localName(Element element) {
+        String name = element.tagName();
+        int index = name.indexOf(':');
+        return index >= 0 ? name.substring(index + 1) : name;
+    }
+
+    /**
+     * 解析相对路径, 处理 . 与 ..
+     */
+    private static String resolve(String dir, String href) {
+        String fragment = "";
+        int hash = href.indexOf('#');
+        if (hash >= 0) {
+            fragment = href.substring(hash);
+            href = href.substring(0, hash);
+        }
+        List<String> parts = new ArrayList<>();
+        for (String part : (href.startsWith("/") ? href.substring(1) : dir + href).split("/")) {
+            if (part.isEmpty() || part.equals(".")) continue;
+            if (part.equals("..")) {
+                if (!parts.isEmpty()) parts.remove(parts.size() - 1);
+            } else {
+                parts.add(part);
+            }
+        }
+        return TextUtils.join("/", parts) + fragment;
+    }
+
+    private static String removeFragment(String href) {
+        int hash = href.indexOf('#');
+        return hash >= 0 ? href.substring(0, hash) : href;
+    }
+
+    private static String decode(String href) {
+        try {
+            return URLDecoder.decode(href.replace("+", "%2B"), "UTF-8");
+        } catch (Exception e) {
+            return href;
+        }
+    }
+
+    static final class TocItem {
+        final String title;
+        final String href;
+
+        TocItem(String title, String href) {
+            this.title = title;
+            this.href = href;
+        }
+    }
+}
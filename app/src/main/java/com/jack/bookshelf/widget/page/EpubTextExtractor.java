@@ -0,0 +1,350 @@
+package com.jack.bookshelf.widget.page;
+
+import com.jack.bookshelf.utils.StringUtils;
+
+import org.jsoup.nodes.Entities;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * EPUB 章节转纯文本
+ * 逐字符扫描 XHTML, 不构建 DOM, 遇到块级元素与 br 时结束当前段落并直接输出,
+ * 段落格式与原来一致: 段与段之间为 \r\n, 每段前加两个全角空格
+ * 连续空白合并为一个空格, 实体按 HTML 实体表解码, script 与 style 的内容以及 ruby 的注音 (rt, rp) 被跳过
+ * 只读取 title 时读到 title 结束或 body 开始为止, 不读取正文
+ */
+final class EpubTextExtractor {
+    private static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList(
+            "address", "article", "aside", "blockquote", "body", "br", "caption", "dd", "div", "dl", "dt",
+            "figcaption", "figure", "footer", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hr",
+            "html", "li", "main", "nav", "ol", "p", "pre", "section", "table", "tbody", "td", "tfoot", "th",
+            "thead", "title", "tr", "ul"));
+    // 内容不是正文, 直到结束标签为止都跳过
+    private static final Set<String> RAW_TEXT_TAGS = new HashSet<>(Arrays.asList("script", "style"));
+    // ruby 注音, 只保留被注音的文字
+    private static final Set<String> SKIP_TAGS = new HashSet<>(Arrays.asList("rt", "rp"));
+
+    private final Reader reader;
+    private final char[] buffer = new char[8 * 1024];
+    private int position;
+    private int limit;
+
+    private final StringBuilder content = new StringBuilder();
+    private final StringBuilder paragraph = new StringBuilder();
+    private final StringBuilder tag = new StringBuilder();
+    // 当前处于 rt 或 rp 中的层数
+    private int skipDepth;
+
+    private final boolean titleOnly;
+    private boolean inTitle;
+    private String title;
+    private boolean done;
+
+    private EpubTextExtractor(Reader reader, boolean titleOnly) {
+        this.reader = reader;
+        this.titleOnly = titleOnly;
+    }
+
+    static String extract(Reader reader) throws IOException {
+        return new EpubTextExtractor(reader, false).extract();
+    }
+
+    /**
+     * head 中 title 的文字, 没有 title 时返回 null
+     */
+    static String readTitle(Reader reader) throws IOException {
+        EpubTextExtractor extractor = new EpubTextExtractor(reader, true);
+        extractor.scan();
+        return extractor.title;
+    }
+
+    private String extract() throws IOException {
+        scan();
+        endParagraph();
+        return content.toString();
+    }
+
+    private void scan() throws IOException {
+        int c;
+        while (!done && (c = read()) != -1) {
+            if (c == '<') {
+                readTag();
+            } else if (c == '&') {
+                appendText(readEntity());
+            } else {
+                appendChar((char) c);
+            }
+        }
+        if (inTitle) {
+            // title 未结束
+            endTitle();
+        }
+    }
+
+    /**
+     * '<' 之后的内容: 注释, CDATA, 声明或标签
+     */
+    private void readTag() throws IOException {
+        int c = peek();
+        if (c == '!') {
+            read();
+            if (skipPrefix("--")) {
+                skipUntil("-->");
+            } else if (skipPrefix("[CDATA[")) {
+                readCData();
+            } else {
+                skipUntil(">");
+            }
+            return;
+        }
+        if (c == '?') {
+            skipUntil(">");
+            return;
+        }
+        if (c != '/' && !isLetter(c)) {
+            // 不是标签, 作为文字
+            appendChar('<');
+            return;
+        }
+        tag.setLength(0);
+        char quote = 0;
+        while ((c = read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                break;
+            }
+            tag.append((char) c);
+        }
+        handleTag();
+    }
+
+    private void handleTag() throws IOException {
+        boolean closing = tag.length() > 0 && tag.charAt(0) == '/';
+        boolean selfClosing = tag.length() > 0 && tag.charAt(tag.length() - 1) == '/';
+        int start = closing ? 1 : 0;
+        int end = start;
+        while (end < tag.length() && !isSpace(tag.charAt(end)) && tag.charAt(end) != '/') {
+            end++;
+        }
+        String name = tag.substring(start, end).toLowerCase();
+        int colon = name.indexOf(':');
+        if (colon >= 0) {
+            name = name.substring(colon + 1);
+        }
+        if (titleOnly) {
+            handleTitleTag(name, closing, selfClosing);
+        } else if (BLOCK_TAGS.contains(name)) {
+            endParagraph();
+        } else if (SKIP_TAGS.contains(name) && !selfClosing) {
+            skipDepth = closing ? Math.max(0, skipDepth - 1) : skipDepth + 1;
+        } else if (RAW_TEXT_TAGS.contains(name) && !closing && !selfClosing) {
+            skipRawText(name);
+        }
+    }
+
+    private void handleTitleTag(String name, boolean closing, boolean selfClosing) throws IOException {
+        if (name.equals("title")) {
+            if (closing) {
+                if (inTitle) endTitle();
+            } else if (!selfClosing) {
+                paragraph.setLength(0);
+                inTitle = true;
+            }
+        } else if (name.equals("body") && !closing) {
+            done = true;
+        } else if (RAW_TEXT_TAGS.contains(name) && !closing && !selfClosing) {
+            skipRawText(name);
+        }
+    }
+
+    private void endTitle() {
+        int length = paragraph.length();
+        if (length > 0 && paragraph.charAt(length - 1) == ' ') {
+            paragraph.setLength(length - 1);
+        }
+        title = paragraph.toString();
+        inTitle = false;
+        done = true;
+    }
+
+    /**
+     * 跳过 script 与 style 的内容, 直到对应的结束标签
+     */
+    private void skipRawText(String name) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<' && skipPrefix("/") && skipPrefixIgnoreCase(name)) {
+                skipUntil(">");
+                return;
+            }
+        }
+    }
+
+    private void readCData() throws IOException {
+        int matched = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ']' && matched < 2) {
+                matched++;
+                continue;
+            }
+            if (c == '>' && matched == 2) {
+                return;
+            }
+            for (; matched > 0; matched--) {
+                appendChar(']');
+            }
+            if (c == ']') {
+                matched = 1;
+            } else {
+                appendChar((char) c);
+            }
+        }
+    }
+
+    /**
+     * '&' 之后的实体, 无法识别时原样返回
+     */
+    private String readEntity() throws IOException {
+        tag.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && tag.length() < 32 && (isLetter(c) || Character.isDigit(c) || c == '#')) {
+            tag.append((char) read());
+        }
+        boolean terminated = c == ';';
+        if (terminated) {
+            read();
+        }
+        String name = tag.toString();
+        if (name.startsWith("#") && name.length() > 1) {
+            try {
+                int codePoint = name.charAt(1) == 'x' || name.charAt(1) == 'X'
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return new String(Character.toChars(codePoint));
+            } catch (IllegalArgumentException ignored) {
+            }
+        } else if (!name.isEmpty()) {
+            String value = Entities.getByName(name);
+            if (!value.isEmpty()) {
+                return value;
+            }
+        }
+        return "&" + name + (terminated ? ";" : "");
+    }
+
+    private void appendText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            appendChar(text.charAt(i));
+        }
+    }
+
+    /**
+     * 连续空白合并为一个空格, 段首不加空格
+     * title 与 Jsoup 读取的一样保留不换行空格
+     */
+    private void appendChar(char c) {
+        if (skipDepth > 0 || (titleOnly && !inTitle)) return;
+        if (isSpace(c) || (c == '\u00a0' && !titleOnly)) {
+            int length = paragraph.length();
+            if (length > 0 && paragraph.charAt(length - 1) != ' ') {
+                paragraph.append(' ');
+            }
+        } else {
+            paragraph.append(c);
+        }
+    }
+
+    private void endParagraph() {
+        int length = paragraph.length();
+        if (length > 0 && paragraph.charAt(length - 1) == ' ') {
+            paragraph.setLength(length - 1);
+        }
+        if (paragraph.length() == 0) return;
+        String text = paragraph.toString();
+        paragraph.setLength(0);
+        // 解码后的实体中可能有标签样式的文字, 与原来一样处理
+        if (text.indexOf('<') >= 0) {
+            text = StringUtils.formatHtml(text);
+            if (text.isEmpty()) return;
+        }
+        if (content.length() > 0) {
+            content.append("\r\n");
+        }
+        content.append("　　").append(text);
+    }
+
+    private boolean skipPrefix(String prefix) throws IOException {
+        return skipPrefix(prefix, false);
+    }
+
+    private boolean skipPrefixIgnoreCase(String prefix) throws IOException {
+        return skipPrefix(prefix, true);
+    }
+
+    /**
+     * 接下来的字符是 prefix 时跳过并返回 true, 否则不移动位置
+     */
+    private boolean skipPrefix(String prefix, boolean ignoreCase) throws IOException {
+        if (!fill(prefix.length())) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = buffer[position + i];
+            char p = prefix.charAt(i);
+            if (c != p && !(ignoreCase && Character.toLowerCase(c) == p)) {
+                return false;
+            }
+        }
+        position += prefix.length();
+        return true;
+    }
+
+    private void skipUntil(String end) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == end.charAt(0) && (end.length() == 1 || skipPrefix(end.substring(1)))) {
+                return;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill(1)) return -1;
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill(1)) return -1;
+        return buffer[position];
+    }
+
+    /**
+     * 保证缓冲中至少有 count 个未读字符
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - position >= count) return true;
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < count) {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read == -1) return false;
+            limit += read;
+        }
+        return true;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
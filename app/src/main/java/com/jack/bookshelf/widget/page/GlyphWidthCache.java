@@ -0,0 +1,76 @@
+package com.jack.bookshelf.widget.page;
+
+import android.graphics.Typeface;
+import android.text.TextPaint;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 单字宽度缓存
+ * 以 字体/字号/字间距/粗体 为键, 按 256 个字符分块缓存 measureText 的结果
+ */
+final class GlyphWidthCache {
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final float[][] blocks = new float[1 << (16 - BLOCK_BITS)][];
+    private final char[] measureBuffer = new char[1];
+    private TextPaint paint;
+    // 缓存键
+    private Typeface typeface;
+    private float textSize;
+    private float letterSpacing;
+    private boolean fakeBold;
+
+    /**
+     * 绑定画笔, 画笔的测量参数改变时清空缓存
+     */
+    synchronized void reset(TextPaint paint) {
+        this.paint = paint;
+        Typeface typeface = paint.getTypeface();
+        boolean fakeBold = paint.isFakeBoldText();
+        if (Objects.equals(this.typeface, typeface)
+                && this.textSize == paint.getTextSize()
+                && this.letterSpacing == paint.getLetterSpacing()
+                && this.fakeBold == fakeBold) {
+            return;
+        }
+        this.typeface = typeface;
+        this.textSize = paint.getTextSize();
+        this.letterSpacing = paint.getLetterSpacing();
+        this.fakeBold = fakeBold;
+        Arrays.fill(blocks, null);
+    }
+
+    /**
+     * 获取单个字符的宽度
+     */
+    synchronized float getWidth(char c) {
+        float[] block = blocks[c >>> BLOCK_BITS];
+        if (block == null) {
+            block = new float[BLOCK_SIZE];
+            Arrays.fill(block, Float.NaN);
+            blocks[c >>> BLOCK_BITS] = block;
+        }
+        float width = block[c & BLOCK_MASK];
+        if (Float.isNaN(width)) {
+            measureBuffer[0] = c;
+            width = paint.measureText(measureBuffer, 0, 1);
+            block[c & BLOCK_MASK] = width;
+        }
+        return width;
+    }
+
+    /**
+     * 获取一段文字按单字累加的宽度
+     */
+    float getWidth(CharSequence text, int start, int end) {
+        float width = 0;
+        for (int i = start; i < end; i++) {
+            width += getWidth(text.charAt(i));
+        }
+        return width;
+    }
+}
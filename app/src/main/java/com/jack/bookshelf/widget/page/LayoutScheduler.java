@@ -0,0 +1,226 @@
+package com.jack.bookshelf.widget.page;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 章节分页调度
+ * 按 当前章 > 下一章 > 上一章 的优先级执行分页任务, 当前章节改变时取消不再需要的任务
+ */
+final class LayoutScheduler {
+    static final int PRIORITY_CURRENT = 0;
+    static final int PRIORITY_NEXT = 1;
+    static final int PRIORITY_PREV = 2;
+    private static final int THREAD_COUNT = 2;
+
+    private final PageLoader pageLoader;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    // 未完成的任务
+    private final List<LayoutJob> activeJobs = new ArrayList<>();
+    // 统计
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final AtomicInteger startedCount = new AtomicInteger();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger cancelledCount = new AtomicInteger();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    LayoutScheduler(PageLoader pageLoader) {
+        this.pageLoader = pageLoader;
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "PageLayout-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交分页任务, 须在主线程调用, 回调也在主线程
+     * 同一章节已有未完成的任务时:
+     * 新任务优先级更高(例如下一章变为当前章)则取消旧任务, 改为执行新任务, 以便逐步发布目标页;
+     * 否则继续执行旧任务, 结果改为交给新的回调
+     */
+    void submit(int chapterPos, int priority, LayoutTask task, Callback callback) {
+        synchronized (activeJobs) {
+            for (LayoutJob job : activeJobs) {
+                if (job.chapterPos == chapterPos && !job.cancelled) {
+                    if (priority >= job.priority) {
+                        job.callback = callback;
+                        return;
+                    }
+                    cancel(job);
+                    break;
+                }
+            }
+            LayoutJob job = new LayoutJob(chapterPos, priority, task, callback);
+            activeJobs.add(job);
+            submittedCount.incrementAndGet();
+            executor.execute(job);
+        }
+    }
+
+    /**
+     * 取消章节不在 [fromChapter, toChapter] 内的任务
+     */
+    void retainChapters(int fromChapter, int toChapter) {
+        synchronized (activeJobs) {
+            for (LayoutJob job : new ArrayList<>(activeJobs)) {
+                if (job.chapterPos < fromChapter || job.chapterPos > toChapter) {
+                    cancel(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * 取消全部任务, 排版参数改变或重新打开章节时调用
+     */
+    void cancelAll() {
+        synchronized (activeJobs) {
+            for (LayoutJob job : new ArrayList<>(activeJobs)) {
+                cancel(job);
+            }
+        }
+    }
+
+    void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void cancel(LayoutJob job) {
+        job.cancel();
+        executor.remove(job);
+        activeJobs.remove(job);
+        cancelledCount.incrementAndGet();
+    }
+
+    private void finish(LayoutJob job) {
+        synchronized (activeJobs) {
+            activeJobs.remove(job);
+        }
+    }
+
+    /**
+     * 排队的任务数与各任务数, 等待与执行耗时
+     * 等待时间为任务从提交到开始执行的时间, 按开始执行的任务平均; 执行时间只统计未取消而完成的任务
+     */
+    String getStats() {
+        int started = startedCount.get();
+        int completed = completedCount.get();
+        return "queue=" + executor.getQueue().size()
+                + " submitted=" + submittedCount.get()
+                + " started=" + started
+                + " completed=" + completed
+                + " cancelled=" + cancelledCount.get()
+                + " avgWait=" + (started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / started)) + "ms"
+                + " maxWait=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()) + "ms"
+                + " avgRun=" + (completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / completed)) + "ms";
+    }
+
+    interface LayoutTask {
+        /**
+         * 在分页线程中执行
+         */
+        TxtChapter layout(ChapterProvider chapterProvider, LayoutJob job) throws Exception;
+    }
+
+    interface Callback {
+        void onResult(TxtChapter txtChapter);
+
+        void onError(Throwable e);
+    }
+
+    final class LayoutJob implements Runnable, Comparable<LayoutJob> {
+        final int chapterPos;
+        final int priority;
+        private final long seq = sequence.incrementAndGet();
+        private final long submitTime = System.nanoTime();
+        private final LayoutTask task;
+        // 同一章节再次提交时替换为新的回调
+        private volatile Callback callback;
+        private final ChapterProvider chapterProvider;
+        private volatile boolean cancelled;
+
+        private LayoutJob(int chapterPos, int priority, LayoutTask task, Callback callback) {
+            this.chapterPos = chapterPos;
+            this.priority = priority;
+            this.task = task;
+            this.callback = callback;
+            this.chapterProvider = new ChapterProvider(pageLoader);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            long startTime = System.nanoTime();
+            long wait = startTime - submitTime;
+            startedCount.incrementAndGet();
+            totalWaitNanos.addAndGet(wait);
+            long max;
+            while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait)) {
+                // 更新最长等待时间
+            }
+            try {
+                TxtChapter txtChapter = task.layout(chapterProvider, this);
+                // 分页中途取消的任务也会返回, 只计入取消数
+                if (!cancelled) {
+                    totalRunNanos.addAndGet(System.nanoTime() - startTime);
+                    completedCount.incrementAndGet();
+                }
+                finish(this);
+                publish(txtChapter);
+            } catch (Throwable e) {
+                finish(this);
+                mainHandler.post(() -> {
+                    if (!cancelled) callback.onError(e);
+                });
+            }
+        }
+
+        /**
+         * 在主线程中发布分页结果, 任务已取消时丢弃
+         */
+        void publish(TxtChapter txtChapter) {
+            if (cancelled || txtChapter == null) return;
+            mainHandler.post(() -> {
+                if (!cancelled) callback.onResult(txtChapter);
+            });
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            chapterProvider.cancel();
+        }
+
+        @Override
+        public int compareTo(LayoutJob o) {
+            if (priority != o.priority) {
+                return Integer.compare(priority, o.priority);
+            }
+            return Long.compare(seq, o.seq);
+        }
+    }
+}
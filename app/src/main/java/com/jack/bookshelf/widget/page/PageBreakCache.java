@@ -0,0 +1,115 @@
+package com.jack.bookshelf.widget.page;
+
+import com.jack.bookshelf.utils.MD5Utils;
+
+import java.util.Arrays;
+
+/**
+ * 分页结果的磁盘缓存
+ * 以 章节整理后的正文 + 排版参数 为键, 保存每页的行数、标题行数以及每行在正文中的起止位置
+ * 命中时不再排版, 直接按位置截取各行重建页面
+ */
+final class PageBreakCache {
+    private static final int VERSION = 2;
+    // 最多保留的缓存文件数
+    private static final int MAX_ENTRIES = 500;
+    private static final DiskLruDir cache = DiskLruDir.inCache("pageBreak", MAX_ENTRIES);
+
+    private PageBreakCache() {
+    }
+
+    static String getKey(String text, String layoutFingerprint) {
+        return MD5Utils.strToMd5By32(layoutFingerprint + "\n" + text);
+    }
+
+    /**
+     * 读取缓存, 不存在或已损坏时返回 null
+     */
+    static PageBreaks get(String key) {
+        return cache.read(key, in -> {
+            if (in.readInt() != VERSION) return null;
+            PageBreaks pageBreaks = new PageBreaks();
+            int pageCount = in.readInt();
+            for (int i = 0; i < pageCount; i++) {
+                int titleLines = in.readInt();
+                int lineCount = in.readInt();
+                for (int j = 0; j < lineCount; j++) {
+                    pageBreaks.addLine(in.readInt(), in.readInt());
+                }
+                pageBreaks.endPage(titleLines);
+            }
+            return pageBreaks;
+        });
+    }
+
+    static void put(String key, PageBreaks pageBreaks) {
+        cache.write(key, out -> {
+            out.writeInt(VERSION);
+            out.writeInt(pageBreaks.getPageCount());
+            for (int i = 0; i < pageBreaks.getPageCount(); i++) {
+                out.writeInt(pageBreaks.getTitleLines(i));
+                out.writeInt(pageBreaks.getPageLineEnd(i) - pageBreaks.getPageLineStart(i));
+                for (int j = pageBreaks.getPageLineStart(i); j < pageBreaks.getPageLineEnd(i); j++) {
+                    out.writeInt(pageBreaks.getLineStart(j));
+                    out.writeInt(pageBreaks.getLineEnd(j));
+                }
+            }
+        });
+    }
+
+    /**
+     * 一章的分页结果
+     */
+    static final class PageBreaks {
+        private int[] lineStarts = new int[64];
+        private int[] lineEnds = new int[64];
+        private int lineCount;
+        private int[] pageLineEnds = new int[8];
+        private int[] pageTitleLines = new int[8];
+        private int pageCount;
+
+        void addLine(int start, int end) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+            }
+            lineStarts[lineCount] = start;
+            lineEnds[lineCount] = end;
+            lineCount++;
+        }
+
+        void endPage(int titleLines) {
+            if (pageCount == pageLineEnds.length) {
+                pageLineEnds = Arrays.copyOf(pageLineEnds, pageCount * 2);
+                pageTitleLines = Arrays.copyOf(pageTitleLines, pageCount * 2);
+            }
+            pageLineEnds[pageCount] = lineCount;
+            pageTitleLines[pageCount] = titleLines;
+            pageCount++;
+        }
+
+        int getPageCount() {
+            return pageCount;
+        }
+
+        int getTitleLines(int page) {
+            return pageTitleLines[page];
+        }
+
+        int getPageLineStart(int page) {
+            return page == 0 ? 0 : pageLineEnds[page - 1];
+        }
+
+        int getPageLineEnd(int page) {
+            return pageLineEnds[page];
+        }
+
+        int getLineStart(int line) {
+            return lineStarts[line];
+        }
+
+        int getLineEnd(int line) {
+            return lineEnds[line];
+        }
+    }
+}
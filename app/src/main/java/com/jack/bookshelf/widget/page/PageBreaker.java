@@ -0,0 +1,128 @@
+package com.jack.bookshelf.widget.page;
+
+/**
+ * 按行高把各段的行排入页面, 得到每页每行在正文中的位置
+ * 不使用画笔, 段落的断行由 LineBreaker 完成
+ */
+final class PageBreaker {
+    private final Metrics metrics;
+    private final LineBreaker lineBreaker;
+
+    PageBreaker(Metrics metrics, LineBreaker lineBreaker) {
+        this.metrics = metrics;
+        this.lineBreaker = lineBreaker;
+    }
+
+    /**
+     * @param text 整理后的正文, 第一段为标题, 每段以换行结尾
+     * @param paragraphEnds 每段在正文中的结束位置
+     * @return 每页每行在正文中的位置
+     */
+    PageBreakCache.PageBreaks layout(String text, int[] paragraphEnds, int paragraphCount, Listener listener) {
+        PageBreakCache.PageBreaks pageBreaks = new PageBreakCache.PageBreaks();
+        int rHeight = metrics.pageHeight;
+        int titleLinesCount = 0;
+        int pageLineCount = 0;
+        for (int p = 0; p < paragraphCount && !listener.isCancelled(); p++) {
+            boolean ifShowTitle = p == 0;
+            int paragraphStart = p == 0 ? 0 : paragraphEnds[p - 1];
+            String paragraph = text.substring(paragraphStart, paragraphEnds[p]);
+            // 整段只断行一次, 逐行取用断行结果
+            int[] lineEnds = lineBreaker.breakLines(paragraph, ifShowTitle);
+            int lineIndex = 0;
+            int lineStart = 0;
+            // 以换行结尾的段落最后还有一个空行, 不排入页面
+            while (lineIndex < lineEnds.length && lineStart < paragraph.length()) {
+                // 当前空间，是否容得下一行文字
+                if (ifShowTitle) {  // 本行显示标题
+                    rHeight -= metrics.titleSize;
+                } else {    // 本行显示正文
+                    rHeight -= metrics.textSize;
+                }
+                // 一页已经填充满了
+                if (rHeight <= 0) {
+                    pageBreaks.endPage(titleLinesCount);
+                    listener.onPageEnd(pageBreaks, pageBreaks.getPageCount() - 1);
+                    rHeight = metrics.pageHeight;
+                    titleLinesCount = 0;
+                    pageLineCount = 0;
+                    continue;
+                }
+                // 取用能在一行显示下的字
+                int lineEnd = lineEnds[lineIndex++];
+                int start = lineStart;
+                lineStart = lineEnd;
+                // 只有换行的行不显示
+                if (lineEnd - start == 1 && paragraph.charAt(start) == '\n') {
+                    continue;
+                }
+                pageBreaks.addLine(paragraphStart + start, paragraphStart + lineEnd);
+                pageLineCount++;
+                // 设置段落间距
+                if (ifShowTitle) {
+                    titleLinesCount += 1;
+                    rHeight -= metrics.titleInterval;
+                } else {
+                    rHeight -= metrics.textInterval;
+                }
+            }
+
+            // 增加段落的间距
+            if (!ifShowTitle && pageLineCount != 0) {
+                rHeight = rHeight - metrics.textPara + metrics.textInterval;
+            }
+
+            if (ifShowTitle) {  //标题绘制完成
+                rHeight = rHeight - metrics.titlePara + metrics.titleInterval;
+            }
+        }
+
+        if (pageLineCount != 0) {
+            pageBreaks.endPage(titleLinesCount);
+        }
+        return pageBreaks;
+    }
+
+    /**
+     * 影响分页的排版参数
+     */
+    static final class Metrics {
+        // 可显示正文的高度
+        final int pageHeight;
+        final float titleSize;
+        final float textSize;
+        final int titleInterval;
+        final int textInterval;
+        final int titlePara;
+        final int textPara;
+
+        Metrics(int pageHeight, float titleSize, float textSize, int titleInterval, int textInterval, int titlePara, int textPara) {
+            this.pageHeight = pageHeight;
+            this.titleSize = titleSize;
+            this.textSize = textSize;
+            this.titleInterval = titleInterval;
+            this.textInterval = textInterval;
+            this.titlePara = titlePara;
+            this.textPara = textPara;
+        }
+    }
+
+    interface LineBreaker {
+        /**
+         * @return 段落排版后每行的结束位置, 与 Layout.getLineEnd 相同
+         */
+        int[] breakLines(String paragraph, boolean isTitle);
+    }
+
+    interface Listener {
+        /**
+         * 排满一页, 最后一页不回调, 由调用方按返回的分页结果取用
+         */
+        void onPageEnd(PageBreakCache.PageBreaks pageBreaks, int page);
+
+        /**
+         * 返回 true 时在下一段落处结束
+         */
+        boolean isCancelled();
+    }
+}
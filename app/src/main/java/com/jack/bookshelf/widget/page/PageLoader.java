@@ -6,7 +6,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Point;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.text.Layout;
@@ -23,7 +23,6 @@ import com.jack.bookshelf.databinding.ActivityBookReadBinding;
 import com.jack.bookshelf.help.BookshelfHelp;
 import com.jack.bookshelf.help.ChapterContentHelp;
 import com.jack.bookshelf.help.ReadBookControl;
-import com.jack.bookshelf.utils.RxUtils;
 import com.jack.bookshelf.utils.StringUtils;
 import com.jack.bookshelf.utils.ToastsKt;
 import com.jack.bookshelf.utils.screen.ScreenUtils;
@@ -34,11 +33,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
-import io.reactivex.Single;
-import io.reactivex.SingleObserver;
-import io.reactivex.SingleOnSubscribe;
 import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.disposables.Disposable;
 
 /**
  * Page Loader
@@ -58,6 +53,10 @@ public abstract class PageLoader {
     // 页面显示类
     PageView mPageView;
     private final List<ChapterContainer> chapterContainers = new ArrayList<>();
+    // 全书页码
+    private final BookPageCounter bookPageCounter = new BookPageCounter(this);
+    // 分页调度
+    private final LayoutScheduler layoutScheduler = new LayoutScheduler(this);
     // 绘制电池的画笔
     private TextPaint mBatteryPaint;
     // 绘制提示的画笔(章节名称和时间)
@@ -68,6 +67,18 @@ public abstract class PageLoader {
     TextPaint mTextPaint;
     // 绘制结束的画笔
     private TextPaint mTextEndPaint;
+    // 标题与正文的字宽缓存
+    final GlyphWidthCache mTitleWidthCache = new GlyphWidthCache();
+    final GlyphWidthCache mTextWidthCache = new GlyphWidthCache();
+    // 绘制页面时复用的对象, 避免每次绘制分配
+    private final Canvas mDrawCanvas = new Canvas();
+    private final Paint.FontMetrics mTitleFontMetrics = new Paint.FontMetrics();
+    private final Paint.FontMetrics mTextFontMetrics = new Paint.FontMetrics();
+    // 页眉、页脚区域, 更新时间和电量时只在页面图片上重绘这两块
+    private final Rect mHeaderRect = new Rect();
+    private final Rect mFooterRect = new Rect();
+    private final Rect mBatteryPolar = new Rect();
+    private final Rect mBatteryFrame = new Rect();
     // 阅读器的配置选项
     ReadBookControl readBookControl = ReadBookControl.getInstance();
     //缩进
@@ -75,6 +86,8 @@ public abstract class PageLoader {
     /*****************params**************************/
     // 判断章节列表是否加载完成
     boolean isChapterListPrepare;
+    // 章节列表是否完整, 本地 TXT 边分章边显示时为 false
+    boolean isChapterListComplete = true;
     private boolean isClose;
     //书籍绘制区域的宽高
     int mVisibleWidth;
@@ -178,6 +191,8 @@ public abstract class PageLoader {
         // 获取内容显示位置的大小
         mVisibleWidth = mDisplayWidth - mMarginLeft - mMarginRight;
         mVisibleHeight = mDisplayHeight - mMarginTop - mMarginBottom;
+        mHeaderRect.set(0, 0, mDisplayWidth, mMarginTop);
+        mFooterRect.set(0, mDisplayHeight - mMarginBottom, mDisplayWidth, mDisplayHeight);
 
         // 设置翻页模式
         mPageView.setPageMode();
@@ -251,6 +266,10 @@ public abstract class PageLoader {
         mTextPaint.setTypeface(Typeface.create(typeface, bold));
         mTextPaint.setAntiAlias(true);
 
+        // 字体参数改变后字宽缓存失效
+        mTitleWidthCache.reset(mTitlePaint);
+        mTextWidthCache.reset(mTextPaint);
+
         // 绘制结束的画笔
         mTextEndPaint = new TextPaint();
         mTextEndPaint.setColor(readBookControl.getTextColor());
@@ -301,6 +320,25 @@ public abstract class PageLoader {
         mTipPaint.setAlpha(TIP_ALPHA);
         mBatteryPaint.setAlpha(TIP_ALPHA);
         mTextEndPaint.setAlpha(TIP_ALPHA);
+        mPageView.setInkColor(readBookControl.getTextColor());
+    }
+
+    /**
+     * 影响分页结果的排版参数, 用作分页缓存的键
+     */
+    String getLayoutFingerprint() {
+        return mVisibleWidth + "," + mVisibleHeight + "," + contentMarginHeight
+                + "," + mTextSize + "," + mTitleSize
+                + "," + mTextInterval + "," + mTitleInterval + "," + mTextPara + "," + mTitlePara
+                + "," + readBookControl.getTextLetterSpacing() + "," + readBookControl.getTextBold()
+                + "," + readBookControl.getFontItem() + "," + readBookControl.getFontPath();
+    }
+
+    /**
+     * 章节分页任务的排队数、等待与执行耗时
+     */
+    public String getLayoutStats() {
+        return "Layout: " + layoutScheduler.getStats();
     }
 
     /**
@@ -376,6 +414,8 @@ public abstract class PageLoader {
         // 设置参数
         mCurChapterPos = chapterPos;
         mCurPagePos = pagePos;
+        // 排版参数或章节改变, 正在进行的分页已失效
+        layoutScheduler.cancelAll();
 
         prevChapter().txtChapter = null;
         curChapter().txtChapter = null;
@@ -429,8 +469,7 @@ public abstract class PageLoader {
      * 更新时间
      */
     public void updateTime() {
-        upPage();
-        mPageView.invalidate();
+        upTipBar();
     }
 
     /**
@@ -441,10 +480,7 @@ public abstract class PageLoader {
             return false;
         }
         mBatteryLevel = level;
-        if (curChapter().txtChapter != null) {
-            upPage();
-        }
-        mPageView.invalidate();
+        upTipBar();
         return true;
     }
 
@@ -604,6 +640,13 @@ public abstract class PageLoader {
      */
     protected abstract String getChapterContent(BookChapterBean chapter) throws Exception;
 
+    /**
+     * 计算全书页码时读取章节内容, 不应占用阅读时的内容缓存
+     */
+    protected String getChapterContentForCount(BookChapterBean chapter) throws Exception {
+        return getChapterContent(chapter);
+    }
+
     /**
      * 章节数据是否存在
      */
@@ -664,6 +707,22 @@ public abstract class PageLoader {
         }
     }
 
+    /**
+     * 只在页面图片上重绘页眉和页脚, 正文不变
+     * 前后两页也一起更新, 翻页后显示的时间和电量不会过时
+     * 硬件加速下 invalidate(Rect) 的脏区域会被忽略, 仍整体刷新 View, 省下的只是页面图片的绘制
+     */
+    private void upTipBar() {
+        if (!mPageView.isPrepare() || curChapter().txtChapter == null) return;
+        for (int pageOnCur = -1; pageOnCur <= 1; pageOnCur++) {
+            Bitmap bitmap = mPageView.getBgBitmap(pageOnCur);
+            if (bitmap != null) {
+                drawPage(bitmap, pageOnCur, true);
+            }
+        }
+        mPageView.invalidate();
+    }
+
     /**
      * 翻页完成
      */
@@ -671,7 +730,7 @@ public abstract class PageLoader {
         if (!isChapterListPrepare) {return;}
         switch (direction) {
             case NEXT:
-                if (mCurPagePos < curChapter().txtChapter.getPageSize() - 1) {
+                if (mCurPagePos < curChapter().txtChapter.getPageSize() - 1 || !curChapter().txtChapter.isCompleted()) {
                     mCurPagePos = mCurPagePos + 1;
                 } else if (mCurChapterPos < book.getChapterListSize() - 1) {
                     mCurChapterPos = mCurChapterPos + 1;
@@ -706,11 +765,27 @@ public abstract class PageLoader {
         resetReadAloud = true;
     }
 
+    /**
+     * 当前章节还在分页, 且该页尚未排好
+     */
+    private boolean isWaitingPage(int pagePos) {
+        TxtChapter txtChapter = curChapter().txtChapter;
+        return txtChapter != null && txtChapter.getStatus() == TxtChapter.Status.FINISH
+                && !txtChapter.isCompleted() && pagePos >= txtChapter.getPageSize();
+    }
+
     /**
      * 绘制页面
      * pageOnCur: 位于当前页的位置, 小于0上一页, 0 当前页, 大于0下一页
      */
     synchronized void drawPage(Bitmap bitmap, int pageOnCur) {
+        drawPage(bitmap, pageOnCur, false);
+    }
+
+    /**
+     * @param tipOnly 只绘制页眉页脚
+     */
+    private synchronized void drawPage(Bitmap bitmap, int pageOnCur, boolean tipOnly) {
         TxtChapter txtChapter;
         TxtPage txtPage = null;
         if (curChapter().txtChapter == null) {
@@ -718,7 +793,11 @@ public abstract class PageLoader {
         }
         if (pageOnCur == 0) { //当前页
             txtChapter = curChapter().txtChapter;
-            txtPage = txtChapter.getPage(mCurPagePos);
+            if (isWaitingPage(mCurPagePos)) {
+                txtChapter = new TxtChapter(mCurChapterPos);
+            } else {
+                txtPage = txtChapter.getPage(mCurPagePos);
+            }
         } else if (pageOnCur < 0) { //上一页
             if (mCurPagePos > 0) {
                 txtChapter = curChapter().txtChapter;
@@ -737,6 +816,9 @@ public abstract class PageLoader {
             if (mCurPagePos + 1 < curChapter().txtChapter.getPageSize()) {
                 txtChapter = curChapter().txtChapter;
                 txtPage = txtChapter.getPage(mCurPagePos + 1);
+            } else if (isWaitingPage(mCurPagePos + 1)) {
+                // 本章还在分页
+                txtChapter = new TxtChapter(mCurChapterPos);
             } else {
                 if (mCurChapterPos + 1 >= callback.getChapterList().size()) {
                     txtChapter = new TxtChapter(mCurChapterPos + 1);
@@ -752,19 +834,51 @@ public abstract class PageLoader {
                 }
             }
         }
+        if (tipOnly) {
+            drawTipBar(bitmap, txtChapter, txtPage);
+            return;
+        }
         if (bitmap != null)
             drawBackground(bitmap, txtChapter, txtPage);
         drawContent(bitmap, txtChapter, txtPage);
     }
 
+    /**
+     * 清除并重绘页眉、页脚区域, 其余部分保持不变
+     */
+    private synchronized void drawTipBar(Bitmap bitmap, TxtChapter txtChapter, TxtPage txtPage) {
+        if (bitmap == null) return;
+        mDrawCanvas.setBitmap(bitmap);
+        drawTipRegion(bitmap, mHeaderRect, txtChapter, txtPage);
+        drawTipRegion(bitmap, mFooterRect, txtChapter, txtPage);
+    }
+
+    private void drawTipRegion(Bitmap bitmap, Rect rect, TxtChapter txtChapter, TxtPage txtPage) {
+        if (rect.isEmpty()) return;
+        mDrawCanvas.save();
+        mDrawCanvas.clipRect(rect);
+        clearBitmap(mDrawCanvas, bitmap);
+        drawBackground(mDrawCanvas, txtChapter, txtPage);
+        mDrawCanvas.restore();
+    }
+
+    private void clearBitmap(Canvas canvas, Bitmap bitmap) {
+        if (bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+            // 墨迹浓度图, 空白处为透明
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        } else {
+            canvas.drawColor(Color.WHITE);
+        }
+    }
+
     /**
      * 横翻模式绘制背景
      */
     private synchronized void drawBackground(Bitmap bitmap, TxtChapter txtChapter, TxtPage txtPage) {
         if (bitmap == null) return;
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawColor(Color.WHITE);
-        drawBackground(canvas, txtChapter, txtPage);
+        mDrawCanvas.setBitmap(bitmap);
+        clearBitmap(mDrawCanvas, bitmap);
+        drawBackground(mDrawCanvas, txtChapter, txtPage);
     }
 
     /**
@@ -780,6 +894,13 @@ public abstract class PageLoader {
                     : String.format("%d/%d", txtPage.getPosition() + 1, txtChapter.getPageSize());
             String progress = (txtChapter.getStatus() != TxtChapter.Status.FINISH) ? ""
                     : BookshelfHelp.getReadProgress(mCurChapterPos, book.getChapterListSize(), mCurPagePos, curChapter().txtChapter.getPageSize());
+            // 全书页码计算完成后, 同时显示在全书中的页码, 进度按页计算
+            int bookPageIndex = txtPage == null ? -1 : bookPageCounter.getPageIndex(txtChapter.getPosition(), txtPage.getPosition());
+            if (txtChapter.getStatus() == TxtChapter.Status.FINISH && bookPageIndex >= 0) {
+                int bookPageTotal = bookPageCounter.getTotalPages();
+                page = String.format("%s  %d/%d", page, bookPageIndex + 1, bookPageTotal);
+                progress = BookshelfHelp.getReadProgress(bookPageCounter.getPageIndex(mCurChapterPos, mCurPagePos), bookPageTotal);
+            }
             //初始化标题的参数
             //需要注意的是:绘制text的y的起始点是text的基准线的位置，而不是从text的头部的位置
             if (getPageStatus() != TxtChapter.Status.FINISH) {
@@ -813,13 +934,15 @@ public abstract class PageLoader {
         // 制作电极
         int polarLeft = visibleRight - polarWidth;
         int polarTop = visibleBottom - (outFrameHeight + polarHeight) / 2;
-        Rect polar = new Rect(polarLeft, polarTop, visibleRight, polarTop + polarHeight);
+        Rect polar = mBatteryPolar;
+        polar.set(polarLeft, polarTop, visibleRight, polarTop + polarHeight);
         mBatteryPaint.setStyle(Paint.Style.FILL);
         canvas.drawRect(polar, mBatteryPaint);
         // 制作外框
         int outFrameLeft = polarLeft - outFrameWidth;
         int outFrameTop = visibleBottom - outFrameHeight;
-        Rect outFrame = new Rect(outFrameLeft, outFrameTop, polarLeft, visibleBottom);
+        Rect outFrame = mBatteryFrame;
+        outFrame.set(outFrameLeft, outFrameTop, polarLeft, visibleBottom);
         mBatteryPaint.setStyle(Paint.Style.STROKE);
         mBatteryPaint.setStrokeWidth(border);
         canvas.drawRect(outFrame, mBatteryPaint);
@@ -839,64 +962,28 @@ public abstract class PageLoader {
 
     /**
      * 绘制内容
+     * 常规绘制路径不记录文字位置, 也不按字分配对象, 文字位置在选择文字时由 ensureCharBounds 计算
      */
     private synchronized void drawContent(Bitmap bitmap, TxtChapter txtChapter, TxtPage txtPage) {
         if (bitmap == null) return;
-        Canvas canvas = new Canvas(bitmap);
-
-        Paint.FontMetrics fontMetricsForTitle = mTitlePaint.getFontMetrics();
-        Paint.FontMetrics fontMetrics = mTextPaint.getFontMetrics();
+        Canvas canvas = mDrawCanvas;
+        canvas.setBitmap(bitmap);
 
         if (txtChapter.getStatus() != TxtChapter.Status.FINISH) {
             // 绘制字体
             String tip = getStatusText(txtChapter);
             drawErrorMsg(canvas, tip);
         } else {
+            Paint.FontMetrics fontMetrics = mTextFontMetrics;
+            mTextPaint.getFontMetrics(fontMetrics);
             float top = contentMarginHeight - fontMetrics.ascent + mMarginTop;
-            int ppp = 0;//pzl,文字位置
             // 对标题进行绘制
             String str;
-            int strLength = 0;
+            mTitlePaint.setColor(readBookControl.getTextColor());
             for (int i = 0; i < txtPage.getTitleLines(); ++i) {
                 str = txtPage.getLine(i);
-                strLength = strLength + str.length();
-                mTitlePaint.setColor(readBookControl.getTextColor());
                 // 进行绘制
                 canvas.drawText(str, mDisplayWidth / 2f, top, mTitlePaint);
-                // pzl
-                float leftPosition = (float) (mDisplayWidth / 2.0);
-                float rightPosition;
-                float bottomPosition = top + mTitlePaint.getFontMetrics().descent;
-                float TextHeight = Math.abs(fontMetricsForTitle.ascent) + Math.abs(fontMetricsForTitle.descent);
-
-                if (txtPage.getTxtLists() != null) {
-                    for (TxtChar c : Objects.requireNonNull(txtPage.getTxtLists().get(i).getCharsData())) {
-                        rightPosition = leftPosition + c.getCharWidth();
-                        Point tlp = new Point();
-                        c.setTopLeftPosition(tlp);
-                        tlp.x = (int) leftPosition;
-                        tlp.y = (int) (bottomPosition - TextHeight);
-
-                        Point blp = new Point();
-                        c.setBottomLeftPosition(blp);
-                        blp.x = (int) leftPosition;
-                        blp.y = (int) bottomPosition;
-
-                        Point trp = new Point();
-                        c.setTopRightPosition(trp);
-                        trp.x = (int) rightPosition;
-                        trp.y = (int) (bottomPosition - TextHeight);
-
-                        Point brp = new Point();
-                        c.setBottomRightPosition(brp);
-                        brp.x = (int) rightPosition;
-                        brp.y = (int) bottomPosition;
-                        ppp++;
-                        c.setIndex(ppp);
-
-                        leftPosition = rightPosition;
-                    }
-                }
                 // 设置尾部间距
                 if (i == txtPage.getTitleLines() - 1) {
                     top += titlePara;
@@ -910,61 +997,14 @@ public abstract class PageLoader {
                 return;
             }
             // 对内容进行绘制
+            mTextPaint.setColor(readBookControl.getTextColor());
             for (int i = txtPage.getTitleLines(); i < txtPage.size(); ++i) {
                 str = txtPage.getLine(i);
-                strLength = strLength + str.length();
-                mTextPaint.setColor(readBookControl.getTextColor());
-                Layout tempLayout = StaticLayout.Builder.obtain(str, 0, str.length(), mTextPaint, mVisibleWidth)
-                        .setAlignment(Layout.Alignment.ALIGN_NORMAL)
-                        .setLineSpacing(0,0)
-                        .setIncludePad(false).build();
-                float width = StaticLayout.getDesiredWidth(str, tempLayout.getLineStart(0), tempLayout.getLineEnd(0), mTextPaint);
                 if (needScale(str)) {
-                    drawScaledText(canvas, str, width, mTextPaint, top, i, txtPage.getTxtLists());
+                    drawScaledText(canvas, str, mTextPaint, top);
                 } else {
                     canvas.drawText(str, mMarginLeft, top, mTextPaint);
                 }
-                //n记录文字位置 --开始 pzl
-                float leftPosition = mMarginLeft;
-                if (isFirstLineOfParagraph(str)) {
-                    String blanks = StringUtils.halfToFull("  ");
-                    //canvas.drawText(blanks, x, top, mTextPaint);
-                    float bw = StaticLayout.getDesiredWidth(blanks, mTextPaint);
-                    leftPosition += bw;
-                }
-                float rightPosition;
-                float bottomPosition = top + mTextPaint.getFontMetrics().descent;
-                float textHeight = Math.abs(fontMetrics.ascent) + Math.abs(fontMetrics.descent);
-                if (txtPage.getTxtLists() != null) {
-                    for (TxtChar c : Objects.requireNonNull(txtPage.getTxtLists().get(i).getCharsData())) {
-                        rightPosition = leftPosition + c.getCharWidth();
-                        Point tlp = new Point();
-                        c.setTopLeftPosition(tlp);
-                        tlp.x = (int) leftPosition;
-                        tlp.y = (int) (bottomPosition - textHeight);
-
-                        Point blp = new Point();
-                        c.setBottomLeftPosition(blp);
-                        blp.x = (int) leftPosition;
-                        blp.y = (int) bottomPosition;
-
-                        Point trp = new Point();
-                        c.setTopRightPosition(trp);
-                        trp.x = (int) rightPosition;
-                        trp.y = (int) (bottomPosition - textHeight);
-
-                        Point brp = new Point();
-                        c.setBottomRightPosition(brp);
-                        brp.x = (int) rightPosition;
-                        brp.y = (int) bottomPosition;
-
-                        leftPosition = rightPosition;
-
-                        ppp++;
-                        c.setIndex(ppp);
-                    }
-                }
-                //记录文字位置 --结束 pzl
 
                 //设置尾部间距
                 if (str.endsWith("\n")) {
@@ -976,6 +1016,73 @@ public abstract class PageLoader {
         }
     }
 
+    /**
+     * 计算页面中每个字的位置, 与 drawContent 的排版一致
+     * 只在长按或拖动选择文字时调用, 结果保存在页面中
+     */
+    private synchronized void ensureCharBounds(TxtPage txtPage) {
+        if (!txtPage.hasCharData() || txtPage.hasCharBounds()) return;
+        Paint.FontMetrics fontMetricsForTitle = mTitleFontMetrics;
+        Paint.FontMetrics fontMetrics = mTextFontMetrics;
+        mTitlePaint.getFontMetrics(fontMetricsForTitle);
+        mTextPaint.getFontMetrics(fontMetrics);
+        float titleHeight = Math.abs(fontMetricsForTitle.ascent) + Math.abs(fontMetricsForTitle.descent);
+        float textHeight = Math.abs(fontMetrics.ascent) + Math.abs(fontMetrics.descent);
+        float top = contentMarginHeight - fontMetrics.ascent + mMarginTop;
+        for (int i = 0; i < txtPage.getTitleLines(); ++i) {
+            int start = txtPage.getLineCharStart(i);
+            int end = txtPage.getLineCharEnd(i);
+            // 标题居中绘制
+            float lineWidth = 0;
+            for (int c = start; c < end; c++) {
+                lineWidth += txtPage.getCharWidth(c);
+            }
+            float bottomPosition = top + fontMetricsForTitle.descent;
+            setCharBounds(txtPage, start, end, (mDisplayWidth - lineWidth) / 2f, 0,
+                    (int) (bottomPosition - titleHeight), (int) bottomPosition);
+            if (i == txtPage.getTitleLines() - 1) {
+                top += titlePara;
+            } else {
+                top += titleInterval;
+            }
+        }
+        for (int i = txtPage.getTitleLines(); i < txtPage.size(); ++i) {
+            String str = txtPage.getLine(i);
+            int start = txtPage.getLineCharStart(i);
+            int end = txtPage.getLineCharEnd(i);
+            float bottomPosition = top + fontMetrics.descent;
+            int charTop = (int) (bottomPosition - textHeight);
+            int charBottom = (int) bottomPosition;
+            if (needScale(str)) {
+                // 两端对齐, 缩进之后的每个字增加相同的间距
+                int indentCount = isFirstLineOfParagraph(str) ? readBookControl.getIndent() : 0;
+                float left = setCharBounds(txtPage, start, start + indentCount, mMarginLeft, 0, charTop, charBottom);
+                setCharBounds(txtPage, start + indentCount, end, left, getScaledGap(str), charTop, charBottom);
+            } else {
+                setCharBounds(txtPage, start, end, mMarginLeft, 0, charTop, charBottom);
+            }
+            if (str.endsWith("\n")) {
+                top += textPara;
+            } else {
+                top += textInterval;
+            }
+        }
+    }
+
+    /**
+     * 记录一段文字的位置
+     * @param gap 两端对齐时每个字额外的间距
+     * @return 最后一个字的右边界
+     */
+    private float setCharBounds(TxtPage txtPage, int start, int end, float left, float gap, int charTop, int charBottom) {
+        for (int c = start; c < end; c++) {
+            float right = left + txtPage.getCharWidth(c) + gap;
+            txtPage.setCharBounds(c, (int) left, charTop, (int) right, charBottom);
+            left = right;
+        }
+        return left;
+    }
+
     private void drawErrorMsg(Canvas canvas, String msg) {
         Layout tempLayout = StaticLayout.Builder.obtain(msg, 0, msg.length(), mTextPaint, mVisibleWidth)
                 .setAlignment(Layout.Alignment.ALIGN_NORMAL)
@@ -1048,6 +1155,10 @@ public abstract class PageLoader {
             if (mCurPagePos + pageOnCur < curChapter().txtChapter.getPageSize() - 1) {
                 return true;
             }
+            // 本章还在分页, 允许翻到等待中的下一页
+            if (!curChapter().txtChapter.isCompleted()) {
+                return mCurPagePos + pageOnCur < curChapter().txtChapter.getPageSize();
+            }
         }
         return mCurChapterPos + 1 < book.getChapterListSize();
     }
@@ -1056,26 +1167,24 @@ public abstract class PageLoader {
      * 解析当前页数据
      */
     void parseCurChapter() {
+        layoutScheduler.retainChapters(mCurChapterPos - 1, mCurChapterPos + 1);
         if (curChapter().txtChapter.getStatus() != TxtChapter.Status.FINISH) {
-            Single.create((SingleOnSubscribe<TxtChapter>) e -> {
-                ChapterProvider chapterProvider = new ChapterProvider(this);
-                TxtChapter txtChapter = chapterProvider.dealLoadPageList(callback.getChapterList().get(mCurChapterPos), mPageView.isPrepare());
-                e.onSuccess(txtChapter);
-            })
-                    .compose(RxUtils::toSimpleSingle)
-                    .subscribe(new SingleObserver<>() {
-                        @Override
-                        public void onSubscribe(Disposable d) {
-                            compositeDisposable.add(d);
-                        }
-
+            final int curChapterPos = mCurChapterPos;
+            final int targetPage = mCurPagePos;
+            final BookChapterBean chapter = callback.getChapterList().get(curChapterPos);
+            final boolean isPrepare = mPageView.isPrepare();
+            // 先发布目标页, 剩余页面继续在后台分页
+            layoutScheduler.submit(curChapterPos, LayoutScheduler.PRIORITY_CURRENT,
+                    (chapterProvider, job) -> chapterProvider.dealLoadPageList(chapter, isPrepare, targetPage, job::publish),
+                    new LayoutScheduler.Callback() {
                         @Override
-                        public void onSuccess(TxtChapter txtChapter) {
+                        public void onResult(TxtChapter txtChapter) {
                             upTextChapter(txtChapter);
                         }
 
                         @Override
                         public void onError(Throwable e) {
+                            if (curChapterPos != mCurChapterPos) return;
                             if (curChapter().txtChapter == null || curChapter().txtChapter.getStatus() != TxtChapter.Status.FINISH) {
                                 curChapter().txtChapter = new TxtChapter(mCurChapterPos);
                                 curChapter().txtChapter.setStatus(TxtChapter.Status.ERROR);
@@ -1084,8 +1193,24 @@ public abstract class PageLoader {
                         }
                     });
         }
-        parsePrevChapter();
         parseNextChapter();
+        parsePrevChapter();
+        if (isChapterListComplete) {
+            bookPageCounter.start(callback.getChapterList());
+        }
+    }
+
+    /**
+     * 章节列表增加了章节, 补充加载之前超出列表的下一章
+     */
+    void onChapterListExtended() {
+        if (!isChapterListPrepare || curChapter().txtChapter == null) return;
+        if (nextChapter().txtChapter == null) {
+            parseNextChapter();
+        }
+        if (isChapterListComplete) {
+            bookPageCounter.start(callback.getChapterList());
+        }
     }
 
     /**
@@ -1093,6 +1218,7 @@ public abstract class PageLoader {
      */
     void parsePrevChapter() {
         final int prevChapterPos = mCurChapterPos - 1;
+        layoutScheduler.retainChapters(prevChapterPos, mCurChapterPos + 1);
         if (prevChapterPos < 0) {
             prevChapter().txtChapter = null;
             return;
@@ -1102,25 +1228,19 @@ public abstract class PageLoader {
         if (prevChapter().txtChapter.getStatus() == TxtChapter.Status.FINISH) {
             return;
         }
-        Single.create((SingleOnSubscribe<TxtChapter>) e -> {
-            ChapterProvider chapterProvider = new ChapterProvider(this);
-            TxtChapter txtChapter = chapterProvider.dealLoadPageList(callback.getChapterList().get(prevChapterPos), mPageView.isPrepare());
-            e.onSuccess(txtChapter);
-        })
-                .compose(RxUtils::toSimpleSingle)
-                .subscribe(new SingleObserver<>() {
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        compositeDisposable.add(d);
-                    }
-
+        final BookChapterBean chapter = callback.getChapterList().get(prevChapterPos);
+        final boolean isPrepare = mPageView.isPrepare();
+        layoutScheduler.submit(prevChapterPos, LayoutScheduler.PRIORITY_PREV,
+                (chapterProvider, job) -> chapterProvider.dealLoadPageList(chapter, isPrepare),
+                new LayoutScheduler.Callback() {
                     @Override
-                    public void onSuccess(TxtChapter txtChapter) {
+                    public void onResult(TxtChapter txtChapter) {
                         upTextChapter(txtChapter);
                     }
 
                     @Override
                     public void onError(Throwable e) {
+                        if (prevChapterPos != mCurChapterPos - 1) return;
                         if (prevChapter().txtChapter == null || prevChapter().txtChapter.getStatus() != TxtChapter.Status.FINISH) {
                             prevChapter().txtChapter = new TxtChapter(prevChapterPos);
                             prevChapter().txtChapter.setStatus(TxtChapter.Status.ERROR);
@@ -1135,6 +1255,7 @@ public abstract class PageLoader {
      */
     void parseNextChapter() {
         final int nextChapterPos = mCurChapterPos + 1;
+        layoutScheduler.retainChapters(mCurChapterPos - 1, nextChapterPos);
         if (nextChapterPos >= callback.getChapterList().size()) {
             nextChapter().txtChapter = null;
             return;
@@ -1144,25 +1265,19 @@ public abstract class PageLoader {
         if (nextChapter().txtChapter.getStatus() == TxtChapter.Status.FINISH) {
             return;
         }
-        Single.create((SingleOnSubscribe<TxtChapter>) e -> {
-            ChapterProvider chapterProvider = new ChapterProvider(this);
-            TxtChapter txtChapter = chapterProvider.dealLoadPageList(callback.getChapterList().get(nextChapterPos), mPageView.isPrepare());
-            e.onSuccess(txtChapter);
-        })
-                .compose(RxUtils::toSimpleSingle)
-                .subscribe(new SingleObserver<>() {
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        compositeDisposable.add(d);
-                    }
-
+        final BookChapterBean chapter = callback.getChapterList().get(nextChapterPos);
+        final boolean isPrepare = mPageView.isPrepare();
+        layoutScheduler.submit(nextChapterPos, LayoutScheduler.PRIORITY_NEXT,
+                (chapterProvider, job) -> chapterProvider.dealLoadPageList(chapter, isPrepare),
+                new LayoutScheduler.Callback() {
                     @Override
-                    public void onSuccess(TxtChapter txtChapter) {
+                    public void onResult(TxtChapter txtChapter) {
                         upTextChapter(txtChapter);
                     }
 
                     @Override
                     public void onError(Throwable e) {
+                        if (nextChapterPos != mCurChapterPos + 1) return;
                         if (nextChapter().txtChapter == null || nextChapter().txtChapter.getStatus() != TxtChapter.Status.FINISH) {
                             nextChapter().txtChapter = new TxtChapter(nextChapterPos);
                             nextChapter().txtChapter.setStatus(TxtChapter.Status.ERROR);
@@ -1172,58 +1287,87 @@ public abstract class PageLoader {
                 });
     }
 
+    /**
+     * 全书页码计算完成
+     */
+    void onBookPagesCounted() {
+        if (isClose || curChapter().txtChapter == null) return;
+        upPage();
+    }
+
+    /**
+     * @return 当前页在全书中的页码(从 0 开始), 全书页码尚未计算完成时为 -1
+     */
+    public int getBookPagePos() {
+        return bookPageCounter.getPageIndex(mCurChapterPos, mCurPagePos);
+    }
+
+    /**
+     * @return 全书页数, 尚未计算完成时为 0
+     */
+    public int getBookPageCount() {
+        return bookPageCounter.getTotalPages();
+    }
+
     private void upTextChapter(TxtChapter txtChapter) {
         if (txtChapter.getPosition() == mCurChapterPos - 1) {
             prevChapter().txtChapter = txtChapter;
             mPageView.drawPage(-1);
         } else if (txtChapter.getPosition() == mCurChapterPos) {
+            TxtChapter oldChapter = curChapter().txtChapter;
             curChapter().txtChapter = txtChapter;
-            resetPage();
-            chapterChangeCallback();
-            pagingEnd(PageAnimation.Direction.NONE);
+            if (oldChapter != null && oldChapter.getPosition() == txtChapter.getPosition()
+                    && oldChapter.getStatus() == TxtChapter.Status.FINISH && !oldChapter.isCompleted()) {
+                // 后续分页结果, 当前页或下一页原来在等待分页时才重绘, 否则只更新页数
+                boolean visibleChanged = mCurPagePos + 1 >= oldChapter.getPageSize();
+                if (txtChapter.isCompleted() && mCurPagePos >= txtChapter.getPageSize()) {
+                    mCurPagePos = Math.max(0, txtChapter.getPageSize() - 1);
+                }
+                if (visibleChanged) {
+                    upPage();
+                } else if (txtChapter.isCompleted()) {
+                    // 页脚的总页数已确定
+                    upTipBar();
+                }
+                callback.onPageCountChange(txtChapter.getPageSize());
+                callback.onPageChange(mCurChapterPos, getCurPagePos(), false);
+            } else {
+                resetPage();
+                chapterChangeCallback();
+                pagingEnd(PageAnimation.Direction.NONE);
+            }
         } else if (txtChapter.getPosition() == mCurChapterPos + 1) {
             nextChapter().txtChapter = txtChapter;
             mPageView.drawPage(1);
         }
     }
 
-    private void drawScaledText(Canvas canvas, String line, float lineWidth, TextPaint paint, float top, int y, List<TxtLine> txtLists) {
+    private void drawScaledText(Canvas canvas, String line, TextPaint paint, float top) {
         float x = mMarginLeft;
+        int start = 0;
 
         if (isFirstLineOfParagraph(line)) {
             canvas.drawText(indent, x, top, paint);
-            float bw = StaticLayout.getDesiredWidth(indent, paint);
-            x += bw;
-            line = line.substring(readBookControl.getIndent());
-        }
-        int gapCount = line.length() - 1;
-        int i = 0;
-
-        TxtLine txtList = new TxtLine();//每一行pzl
-        txtList.setCharsData(new ArrayList<>());//pzl
-
-        float d = ((mDisplayWidth - (mMarginLeft + mMarginRight)) - lineWidth) / gapCount;
-        for (; i < line.length(); i++) {
-            String c = String.valueOf(line.charAt(i));
-            float cw = StaticLayout.getDesiredWidth(c, paint);
-            canvas.drawText(c, x, top, paint);
-            //pzl
-            TxtChar txtChar = new TxtChar();
-            txtChar.setChardata(line.charAt(i));
-            if (i == 0) txtChar.setCharWidth(cw + d / 2);
-            if (i == gapCount) txtChar.setCharWidth(cw + d / 2);
-            txtChar.setCharWidth(cw + d);
-            //字宽
-            //txtChar.Index = y;//每页每个字的位置
-            Objects.requireNonNull(txtList.getCharsData()).add(txtChar);
-            //pzl
-            x += cw + d;
+            x += mTextWidthCache.getWidth(indent, 0, indent.length());
+            start = readBookControl.getIndent();
         }
-        if (txtLists != null) {
-            txtLists.set(y, txtList);//pzl
+        float d = getScaledGap(line);
+        for (int i = start; i < line.length(); i++) {
+            canvas.drawText(line, i, i + 1, x, top, paint);
+            x += mTextWidthCache.getWidth(line.charAt(i)) + d;
         }
     }
 
+    /**
+     * 两端对齐时, 缩进之后每个字增加的间距
+     */
+    private float getScaledGap(String line) {
+        int start = isFirstLineOfParagraph(line) ? readBookControl.getIndent() : 0;
+        int gapCount = line.length() - start - 1;
+        float lineWidth = mTextWidthCache.getWidth(line, 0, line.length());
+        return ((mDisplayWidth - (mMarginLeft + mMarginRight)) - lineWidth) / gapCount;
+    }
+
     /**
      * 判断是不是第一行
      */
@@ -1262,6 +1406,8 @@ public abstract class PageLoader {
      * 关闭书本
      */
     public void closeBook() {
+        bookPageCounter.release();
+        layoutScheduler.shutdown();
         compositeDisposable.dispose();
         compositeDisposable = null;
 
@@ -1300,22 +1446,17 @@ public abstract class PageLoader {
      */
     TxtChar detectPressTxtChar(float down_X2, float down_Y2) {
         TxtPage txtPage = curChapter().txtChapter.getPage(mCurPagePos);
-        if (txtPage == null) return null;
-        List<TxtLine> txtLines = txtPage.getTxtLists();
-        if (txtLines == null) return null;
-        for (TxtLine l : txtLines) {
-            List<TxtChar> txtChars = l.getCharsData();
-            if (txtChars != null) {
-                for (TxtChar c : txtChars) {
-                    Point leftPoint = c.getBottomLeftPosition();
-                    Point rightPoint = c.getBottomRightPosition();
-                    if (leftPoint != null && down_Y2 > leftPoint.y) {
-                        break;// 说明是在下一行
-                    }
-                    if (leftPoint != null && rightPoint != null && down_X2 >= leftPoint.x && down_X2 <= rightPoint.x) {
-                        return c;
-                    }
-
+        if (txtPage == null || !txtPage.hasCharData()) return null;
+        ensureCharBounds(txtPage);
+        for (int line = 0; line < txtPage.size(); line++) {
+            int start = txtPage.getLineCharStart(line);
+            int end = txtPage.getLineCharEnd(line);
+            if (start == end || down_Y2 > txtPage.getCharBottom(start)) {
+                continue;// 说明是在下一行
+            }
+            for (int c = start; c < end; c++) {
+                if (down_X2 >= txtPage.getCharLeft(c) && down_X2 <= txtPage.getCharRight(c)) {
+                    return txtPage.getTxtChar(c);
                 }
             }
         }
@@ -1337,6 +1478,12 @@ public abstract class PageLoader {
          */
         void onCategoryFinish(List<BookChapterBean> chapters);
 
+        /**
+         * 作用：章节目录加载过程中回调, 目录尚不完整, 不需要保存
+         * @param chapters：已加载的章节目录
+         */
+        void onCategoryProgress(List<BookChapterBean> chapters);
+
         /**
          * 作用：章节页码数量改变之后的回调。==> 字体大小的调整，或者是否关闭虚拟按钮功能都会改变页面的数量。
          * @param count:页面的数量
@@ -8,16 +8,13 @@ import com.jack.bookshelf.bean.BookChapterBean;
 import com.jack.bookshelf.bean.BookShelfBean;
 import com.jack.bookshelf.databinding.ActivityBookReadBinding;
 import com.jack.bookshelf.help.BookshelfHelp;
+import com.jack.bookshelf.utils.IOUtils;
 import com.jack.bookshelf.utils.RxUtils;
 import com.jack.bookshelf.utils.StringUtils;
 
 import net.sf.jazzlib.ZipFile;
 
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.TextNode;
-import org.jsoup.select.Elements;
 
 import java.io.File;
 import java.io.IOException;
@@ -34,10 +31,6 @@ import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.MediaType;
-import nl.siegmann.epublib.domain.Metadata;
-import nl.siegmann.epublib.domain.Resource;
-import nl.siegmann.epublib.domain.SpineReference;
-import nl.siegmann.epublib.domain.TOCReference;
 import nl.siegmann.epublib.epub.EpubReader;
 import nl.siegmann.epublib.service.MediatypeService;
 
@@ -51,7 +44,8 @@ public class PageLoaderEpub extends PageLoader {
     //编码类型
     private Charset mCharset;
 
-    private Book epubBook;
+    // 排版线程不加锁读取, 关闭后的 EpubArchive 读取章节时抛出异常
+    private volatile EpubArchive epubArchive;
 
     private List<BookChapterBean> chapterList;
 
@@ -65,9 +59,16 @@ public class PageLoaderEpub extends PageLoader {
 
         Observable.create((ObservableOnSubscribe<BookShelfBean>) e -> {
             File bookFile = new File(book.getNoteUrl());
-            epubBook = readBook(bookFile);
+            synchronized (this) {
+                IOUtils.close(epubArchive);
+                try {
+                    epubArchive = EpubArchive.open(bookFile);
+                } catch (IOException ex) {
+                    epubArchive = null;
+                }
+            }
 
-            if (epubBook == null) {
+            if (epubArchive == null) {
                 e.onError(new Exception(StringUtils.getString(R.string.parse_file_error)));
                 return;
             }
@@ -119,38 +120,32 @@ public class PageLoaderEpub extends PageLoader {
     }
 
     private List<BookChapterBean> loadChapters() {
-        Metadata metadata = epubBook.getMetadata();
-        book.getBookInfoBean().setName(metadata.getFirstTitle());
-        if (metadata.getAuthors().size() > 0) {
-            String author = metadata.getAuthors().get(0).toString().replaceAll("^, |, $", "");
+        if (!TextUtils.isEmpty(epubArchive.getTitle())) {
+            book.getBookInfoBean().setName(epubArchive.getTitle());
+        }
+        if (epubArchive.getAuthors().size() > 0) {
+            String author = epubArchive.getAuthors().get(0).replaceAll("^, |, $", "");
             book.getBookInfoBean().setAuthor(author);
         }
-        if (metadata.getDescriptions().size() > 0) {
-            book.getBookInfoBean().setIntroduce(Jsoup.parse(metadata.getDescriptions().get(0)).text());
+        if (!TextUtils.isEmpty(epubArchive.getDescription())) {
+            book.getBookInfoBean().setIntroduce(Jsoup.parse(epubArchive.getDescription()).text());
         }
         chapterList = new ArrayList<>();
-        List<TOCReference> refs = epubBook.getTableOfContents().getTocReferences();
-        if (refs == null || refs.isEmpty()) {
-            List<SpineReference> spineReferences = epubBook.getSpine().getSpineReferences();
-            for (int i = 0, size = spineReferences.size(); i < size; i++) {
-                Resource resource = spineReferences.get(i).getResource();
-                String title = resource.getTitle();
-                if (TextUtils.isEmpty(title)) {
-                    try {
-                        Document doc = Jsoup.parse(new String(resource.getData(), mCharset));
-                        Elements elements = doc.getElementsByTag("title");
-                        if (elements.size() > 0) {
-                            title = elements.get(0).text();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        List<EpubArchive.TocItem> refs = epubArchive.getToc();
+        if (refs.isEmpty()) {
+            List<String> spine = epubArchive.getSpine();
+            for (int i = 0, size = spine.size(); i < size; i++) {
+                String title = null;
+                try {
+                    title = epubArchive.getChapterTitle(spine.get(i), mCharset);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
                 BookChapterBean bean = new BookChapterBean();
                 bean.setDurChapterIndex(i);
-                bean.setNoteUrl(bean.getNoteUrl());
-                bean.setDurChapterUrl(resource.getHref());
-                if (i == 0 && title.isEmpty()) {
+                bean.setNoteUrl(book.getNoteUrl());
+                bean.setDurChapterUrl(spine.get(i));
+                if (i == 0 && TextUtils.isEmpty(title)) {
                     bean.setDurChapterName(StringUtils.getString(R.string.cover));
                 } else {
                     bean.setDurChapterName(title);
@@ -158,7 +153,13 @@ public class PageLoaderEpub extends PageLoader {
                 chapterList.add(bean);
             }
         } else {
-            parseMenu(refs, 0);
+            for (EpubArchive.TocItem ref : refs) {
+                BookChapterBean bookChapterBean = new BookChapterBean();
+                bookChapterBean.setNoteUrl(book.getNoteUrl());
+                bookChapterBean.setDurChapterName(ref.title);
+                bookChapterBean.setDurChapterUrl(ref.href);
+                chapterList.add(bookChapterBean);
+            }
             for (int i = 0; i < chapterList.size(); i++) {
                 chapterList.get(i).setDurChapterIndex(i);
             }
@@ -167,46 +168,21 @@ public class PageLoaderEpub extends PageLoader {
         return chapterList;
     }
 
-    private void parseMenu(List<TOCReference> refs, int level) {
-        if (refs == null) return;
-        for (TOCReference ref : refs) {
-            if (ref.getResource() != null) {
-                BookChapterBean bookChapterBean = new BookChapterBean();
-                bookChapterBean.setNoteUrl(book.getNoteUrl());
-                bookChapterBean.setDurChapterName(ref.getTitle());
-                bookChapterBean.setDurChapterUrl(ref.getCompleteHref());
-                chapterList.add(bookChapterBean);
-            }
-            if (ref.getChildren() != null && !ref.getChildren().isEmpty()) {
-                parseMenu(ref.getChildren(), level + 1);
-            }
+    @Override
+    protected String getChapterContent(BookChapterBean chapter) throws Exception {
+        EpubArchive archive = epubArchive;
+        if (archive == null) {
+            throw new Exception(StringUtils.getString(R.string.parse_file_error));
         }
+        return archive.getChapterText(chapter.getDurChapterUrl(), mCharset);
     }
 
     @Override
-    protected String getChapterContent(BookChapterBean chapter) throws Exception {
-        Resource resource = epubBook.getResources().getByHref(chapter.getDurChapterUrl());
-        StringBuilder content = new StringBuilder();
-        Document doc = Jsoup.parse(new String(resource.getData(), mCharset));
-        Elements elements = doc.getAllElements();
-        for (Element element : elements) {
-            List<TextNode> contentEs = element.textNodes();
-            for (int i = 0; i < contentEs.size(); i++) {
-                String text = contentEs.get(i).text().trim();
-                text = StringUtils.formatHtml(text);
-                if (elements.size() > 1) {
-                    if (text.length() > 0) {
-                        if (content.length() > 0) {
-                            content.append("\r\n");
-                        }
-                        content.append("\u3000\u3000").append(text);
-                    }
-                } else {
-                    content.append(text);
-                }
-            }
+    public void closeBook() {
+        super.closeBook();
+        synchronized (this) {
+            IOUtils.close(epubArchive);
         }
-        return content.toString();
     }
 
     private Observable<BookShelfBean> checkChapterList(BookShelfBean collBook) {
@@ -52,6 +52,7 @@ public class PageView extends View implements PageAnimation.OnPageChangeListener
     //文字选择画笔颜色
     private final int TextSelectColor = getResources().getColor(R.color.text_selector_background_color);
     private final Path mSelectTextPath = new Path();
+    private final RectF mSelectRect = new RectF();
     //触摸到起始位置
     private int mStartX = 0;
     private int mStartY = 0;
@@ -131,6 +132,15 @@ public class PageView extends View implements PageAnimation.OnPageChangeListener
         mPageAnim = new NonePageAnim(mViewWidth, mViewHeight, this, this);
     }
 
+    /**
+     * 墨水屏页面以文字颜色显示, 文字颜色改变时更新
+     */
+    void setInkColor(int color) {
+        if (mPageAnim == null) return;
+        ((NonePageAnim) mPageAnim).setInkColor(color);
+        invalidate();
+    }
+
     public ReadBookActivity getActivity() {
         return activity;
     }
@@ -216,10 +226,10 @@ public class PageView extends View implements PageAnimation.OnPageChangeListener
     private void drawPressSelectText(Canvas canvas) {
         if (lastSelectTxtChar != null) {    // 找到了选择的字符
             mSelectTextPath.reset();
-            mSelectTextPath.moveTo(Objects.requireNonNull(firstSelectTxtChar.getTopLeftPosition()).x, firstSelectTxtChar.getTopLeftPosition().y);
-            mSelectTextPath.lineTo(Objects.requireNonNull(firstSelectTxtChar.getTopRightPosition()).x, firstSelectTxtChar.getTopRightPosition().y);
-            mSelectTextPath.lineTo(Objects.requireNonNull(firstSelectTxtChar.getBottomRightPosition()).x, firstSelectTxtChar.getBottomRightPosition().y);
-            mSelectTextPath.lineTo(Objects.requireNonNull(firstSelectTxtChar.getBottomLeftPosition()).x, firstSelectTxtChar.getBottomLeftPosition().y);
+            mSelectTextPath.moveTo(firstSelectTxtChar.getCharLeft(), firstSelectTxtChar.getCharTop());
+            mSelectTextPath.lineTo(firstSelectTxtChar.getCharRight(), firstSelectTxtChar.getCharTop());
+            mSelectTextPath.lineTo(firstSelectTxtChar.getCharRight(), firstSelectTxtChar.getCharBottom());
+            mSelectTextPath.lineTo(firstSelectTxtChar.getCharLeft(), firstSelectTxtChar.getCharBottom());
             canvas.drawPath(mSelectTextPath, mTextSelectPaint);
         }
     }
@@ -241,45 +251,20 @@ public class PageView extends View implements PageAnimation.OnPageChangeListener
         drawSelectLines(canvas);
     }
 
-    List<TxtLine> mLineData = null;
-
     private void getSelectData() {
+        mSelectLines.clear();
         TxtPage txtPage = mPageLoader.curChapter().txtChapter.getPage(mPageLoader.getCurPagePos());
-        if (txtPage != null) {
-            mLineData = txtPage.getTxtLists();
-            boolean Started = false;
-            boolean Ended = false;
-            mSelectLines.clear();
-            // 找到选择的字符数据，转化为选择的行，然后将行选择背景画出来
-            for (TxtLine l : mLineData) {
-                TxtLine selectLine = new TxtLine();
-                selectLine.setCharsData(new ArrayList<>());
-                for (TxtChar c : Objects.requireNonNull(l.getCharsData())) {
-                    if (!Started) {
-                        if (c.getIndex() == firstSelectTxtChar.getIndex()) {
-                            Started = true;
-                            Objects.requireNonNull(selectLine.getCharsData()).add(c);
-                            if (c.getIndex() == lastSelectTxtChar.getIndex()) {
-                                Ended = true;
-                                break;
-                            }
-                        }
-                    } else {
-                        if (c.getIndex() == lastSelectTxtChar.getIndex()) {
-                            Ended = true;
-                            if (!Objects.requireNonNull(selectLine.getCharsData()).contains(c)) {
-                                selectLine.getCharsData().add(c);
-                            }
-                            break;
-                        } else {
-                            Objects.requireNonNull(selectLine.getCharsData()).add(c);
-                        }
-                    }
-                }
-                mSelectLines.add(selectLine);
-                if (Started && Ended) {
-                    break;
-                }
+        if (txtPage == null || firstSelectTxtChar.getPage() != txtPage || lastSelectTxtChar.getPage() != txtPage) {
+            return;
+        }
+        // 找到选择的字符数据，转化为选择的行，然后将行选择背景画出来
+        int first = firstSelectTxtChar.getIndex();
+        int last = lastSelectTxtChar.getIndex();
+        for (int i = 0; i < txtPage.size(); i++) {
+            int start = Math.max(first, txtPage.getLineCharStart(i));
+            int end = Math.min(last + 1, txtPage.getLineCharEnd(i));
+            if (start < end) {
+                mSelectLines.add(new TxtLine(txtPage, start, end));
             }
         }
     }
@@ -313,13 +298,12 @@ public class PageView extends View implements PageAnimation.OnPageChangeListener
      */
     private void drawOvalSelectLinesBg(Canvas canvas) {
         for (TxtLine l : mSelectLines) {
-            if (l.getCharsData() != null && l.getCharsData().size() > 0) {
-                TxtChar fistChar = l.getCharsData().get(0);
-                TxtChar lastChar = l.getCharsData().get(l.getCharsData().size() - 1);
+            if (l.getCharCount() > 0) {
+                TxtChar fistChar = l.getFirstChar();
+                TxtChar lastChar = l.getLastChar();
                 float fw = fistChar.getCharWidth();
-                RectF rect = new RectF(Objects.requireNonNull(fistChar.getTopLeftPosition()).x, fistChar.getTopLeftPosition().y,
-                        Objects.requireNonNull(lastChar.getTopRightPosition()).x, Objects.requireNonNull(lastChar.getBottomRightPosition()).y);
-                canvas.drawRoundRect(rect, fw / 4, textHeight /4, mTextSelectPaint);
+                mSelectRect.set(fistChar.getCharLeft(), fistChar.getCharTop(), lastChar.getCharRight(), lastChar.getCharBottom());
+                canvas.drawRoundRect(mSelectRect, fw / 4, textHeight /4, mTextSelectPaint);
             }
         }
     }
@@ -13,6 +13,8 @@ class TxtChapter internal constructor(val position: Int) {
     val paragraphLengthList = ArrayList<Int>()
     var status = Status.LOADING
     var msg: String? = null
+    // 是否分页完成, 逐步分页时先发布的章节为 false
+    var isCompleted = true
 
     val pageSize: Int
         get() = txtPageList.size
@@ -50,6 +52,19 @@ class TxtChapter internal constructor(val position: Int) {
         return -1
     }
 
+    /**
+     * 复制当前已排好的页面, 作为未完成的章节发布
+     */
+    fun snapshot(): TxtChapter {
+        val chapter = TxtChapter(position)
+        chapter.txtPageList.addAll(txtPageList)
+        chapter.txtPageLengthList.addAll(txtPageLengthList)
+        chapter.paragraphLengthList.addAll(paragraphLengthList)
+        chapter.status = Status.FINISH
+        chapter.isCompleted = false
+        return chapter
+    }
+
     enum class Status {
         LOADING, FINISH, ERROR, EMPTY, CATEGORY_EMPTY, CHANGE_SOURCE
     }
@@ -0,0 +1,107 @@
+package com.jack.bookshelf.widget.page;
+
+import com.jack.bookshelf.bean.BookChapterBean;
+import com.jack.bookshelf.utils.MD5Utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 TXT 的章节索引
+ * 以 文件路径 + 大小 + 修改时间 + 编码 + 分章规则 为键, 保存章节名、字节范围以及简介
+ * 文件未改变时重新打开或重新导入直接由索引恢复目录, 不再读取正文
+ */
+final class TxtChapterIndex {
+    private static final int VERSION = 3;
+    // 最多保留的索引文件数
+    private static final int MAX_ENTRIES = 200;
+    private static final DiskLruDir cache = DiskLruDir.inCache("txtChapterIndex", MAX_ENTRIES);
+
+    private final List<BookChapterBean> chapters;
+    private final String introduce;
+
+    TxtChapterIndex(List<BookChapterBean> chapters, String introduce) {
+        this.chapters = chapters;
+        this.introduce = introduce;
+    }
+
+    /**
+     * @return 章节列表, 只设置了章节名与起止位置
+     */
+    List<BookChapterBean> getChapters() {
+        return chapters;
+    }
+
+    /**
+     * @return 第一章之前的内容, 没有时为 null
+     */
+    String getIntroduce() {
+        return introduce;
+    }
+
+    static String getKey(File file, String charset, List<Pattern> chapterPatterns) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(file.getAbsolutePath()).append('\n')
+                .append(file.length()).append('\n')
+                .append(file.lastModified()).append('\n')
+                .append(charset).append('\n');
+        for (Pattern pattern : chapterPatterns) {
+            builder.append(pattern.pattern()).append('\n');
+        }
+        return MD5Utils.strToMd5By32(builder.toString());
+    }
+
+    /**
+     * 读取索引, 不存在或已损坏时返回 null
+     */
+    static TxtChapterIndex get(String key) {
+        return cache.read(key, in -> {
+            if (in.readInt() != VERSION) return null;
+            String introduce = in.readBoolean() ? readString(in) : null;
+            int count = in.readInt();
+            List<BookChapterBean> chapters = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                BookChapterBean chapter = new BookChapterBean();
+                chapter.setDurChapterName(readString(in));
+                chapter.setStart(in.readLong());
+                chapter.setEnd(in.readLong());
+                chapters.add(chapter);
+            }
+            return new TxtChapterIndex(chapters, introduce);
+        });
+    }
+
+    static void put(String key, TxtChapterIndex index) {
+        cache.write(key, out -> {
+            out.writeInt(VERSION);
+            out.writeBoolean(index.introduce != null);
+            if (index.introduce != null) {
+                writeString(out, index.introduce);
+            }
+            out.writeInt(index.chapters.size());
+            for (BookChapterBean chapter : index.chapters) {
+                writeString(out, chapter.getDurChapterName());
+                out.writeLong(chapter.getStart());
+                out.writeLong(chapter.getEnd());
+            }
+        });
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
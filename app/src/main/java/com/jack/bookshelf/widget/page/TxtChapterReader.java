@@ -0,0 +1,144 @@
+package com.jack.bookshelf.widget.page;
+
+import android.util.LruCache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+
+/**
+ * 本地 TXT 章节内容读取
+ * 打开书籍期间共用一个 FileChannel 按位置读取, 读取缓冲与解码器放在池中复用,
+ * 最近读取的章节保存在 LRU 中, 在相邻章节间来回翻页时不再读取文件
+ */
+final class TxtChapterReader implements Closeable {
+    // 缓存的章节内容总字数
+    private static final int CACHE_CHARS = 2 * 1024 * 1024;
+    // 池中最多保留的缓冲数, 分页线程与全书页码线程各用一个
+    private static final int POOL_SIZE = 3;
+
+    private final File file;
+    private final Charset charset;
+    private final ArrayDeque<ReadBuffer> pool = new ArrayDeque<>();
+    private final LruCache<String, String> contentCache = new LruCache<String, String>(CACHE_CHARS) {
+        @Override
+        protected int sizeOf(String key, String value) {
+            return Math.max(1, value.length());
+        }
+    };
+    private FileChannel channel;
+    private volatile boolean closed;
+
+    TxtChapterReader(File file, Charset charset) {
+        this.file = file;
+        this.charset = charset;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * 读取 [start, end) 字节并解码
+     */
+    String read(long start, long end) throws IOException {
+        String key = start + "-" + end;
+        String content = contentCache.get(key);
+        if (content != null) return content;
+        content = readUncached(start, end);
+        contentCache.put(key, content);
+        return content;
+    }
+
+    /**
+     * 读取 [start, end) 字节并解码, 不读写 LRU, 用于逐章读取整本书
+     */
+    String readUncached(long start, long end) throws IOException {
+        ReadBuffer buffer = acquire();
+        try {
+            return buffer.read(start, (int) (end - start));
+        } finally {
+            release(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        pool.clear();
+        contentCache.evictAll();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * 其他线程被中断时 FileChannel 会被关闭, 此时重新打开
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (channel == null || !channel.isOpen()) {
+            channel = new FileInputStream(file).getChannel();
+        }
+        return channel;
+    }
+
+    private synchronized ReadBuffer acquire() {
+        ReadBuffer buffer = pool.poll();
+        return buffer != null ? buffer : new ReadBuffer();
+    }
+
+    private synchronized void release(ReadBuffer buffer) {
+        if (!closed && pool.size() < POOL_SIZE) {
+            pool.push(buffer);
+        }
+    }
+
+    private final class ReadBuffer {
+        private final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer bytes = ByteBuffer.allocate(0);
+        private CharBuffer chars = CharBuffer.allocate(0);
+
+        String read(long position, int length) throws IOException {
+            if (bytes.capacity() < length) {
+                bytes = ByteBuffer.allocate(length);
+            }
+            bytes.clear();
+            bytes.limit(length);
+            while (bytes.hasRemaining()) {
+                int read;
+                try {
+                    read = getChannel().read(bytes, position + bytes.position());
+                } catch (ClosedChannelException e) {
+                    // 本线程被中断或已关闭时放弃, 否则是其他线程中断导致通道关闭, 重试
+                    if (e instanceof ClosedByInterruptException || closed) throw e;
+                    continue;
+                }
+                if (read < 0) break;
+            }
+            bytes.flip();
+            int capacity = (int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+            if (chars.capacity() < capacity) {
+                chars = CharBuffer.allocate(capacity);
+            }
+            chars.clear();
+            decoder.reset();
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            return new String(chars.array(), 0, chars.position());
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.jack.bookshelf.widget.page;
+
+import com.jack.bookshelf.R;
+import com.jack.bookshelf.bean.BookChapterBean;
+import com.jack.bookshelf.utils.StringUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 TXT 分章
+ * 通过 FileChannel.map 映射文件, 按行对齐切成若干段, 逐段解码并匹配章节名
+ * 章节位置直接以字节偏移记录: 解码时每隔一小段记下一个 (字节, 字符) 检查点,
+ * 匹配到章节名后从最近的检查点解码一小段即可换算出字节位置, 正文不会被重新编码
+ * 每段在解码前都补上段首之前的换行符, 因此各段可以独立并行匹配
+ * 所有位置均为 long, 超长的章节切成不超过 MAX_CHAPTER_LENGTH 的若干部分,
+ * 读取与分页占用的内存只与单个部分的大小有关, 与文件大小无关
+ */
+final class TxtChapterSplitter implements Closeable {
+    // 每段的大小, 段的边界对齐到行首
+    static final int SEGMENT_SIZE = 512 * 1024;
+    // 解码检查点的间隔
+    private static final int CHECKPOINT_SIZE = 4 * 1024;
+    // 没有标题的时候，每个章节的最大长度
+    private static final int MAX_LENGTH_WITH_NO_CHAPTER = 10 * 1024;
+    // 有标题时每个章节的最大长度, 超过时切成多个部分
+    static final int MAX_CHAPTER_LENGTH = 1024 * 1024;
+    // 查找行尾的最大距离, 超过时在字符边界处断开
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final Charset charset;
+    // 换行符在该编码下的字节
+    private final byte[] newline;
+    // 第一章之前的内容
+    private String introduce;
+
+    TxtChapterSplitter(File file, Charset charset) throws IOException {
+        this.channel = new FileInputStream(file).getChannel();
+        this.fileSize = channel.size();
+        this.charset = charset;
+        // 两个换行符与一个换行符的差, 排除 BOM
+        byte[] one = "\n".getBytes(charset);
+        byte[] two = "\n\n".getBytes(charset);
+        this.newline = Arrays.copyOfRange(two, one.length, two.length);
+    }
+
+    /**
+     * 分章
+     *
+     * @param chapterPattern 章节名的正则, 为 null 时按长度虚拟分章
+     * @param listener       分章过程中接收已确定起止位置的章节, 可为 null
+     * @return 章节列表, 只设置了章节名与起止位置
+     */
+    List<BookChapterBean> split(Pattern chapterPattern, ChapterListener listener) throws IOException {
+        return split(chapterPattern, listener, true);
+    }
+
+    /**
+     * @param parallel 为 false 时在当前线程中逐段处理
+     */
+    List<BookChapterBean> split(Pattern chapterPattern, ChapterListener listener, boolean parallel) throws IOException {
+        long[] bounds = getSegmentBounds();
+        List<BookChapterBean> chapters = new ArrayList<>();
+        if (chapterPattern != null) {
+            chapters = splitSegments(bounds, chapterPattern, listener, parallel);
+        }
+        if (chapters.isEmpty()) {
+            introduce = null;
+            chapters = splitSegments(bounds, null, listener, parallel);
+        }
+        return chapters;
+    }
+
+    /**
+     * 各段互不依赖, 段数较多时在 ForkJoinPool 中并行处理, 在 ForkJoinPool 中调用时使用该线程池
+     * 按段的顺序合并结果, 结果与顺序处理一致, 每合并一批就通知一次已确定的章节
+     */
+    private List<BookChapterBean> splitSegments(long[] bounds, Pattern chapterPattern,
+                                                ChapterListener listener, boolean allowParallel) throws IOException {
+        int segmentCount = bounds.length - 1;
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        int parallelism = pool.getParallelism();
+        int grain = Math.max(1, segmentCount / (parallelism * 4));
+        List<SplitTask> tasks = new ArrayList<>();
+        for (int i = 0; i < segmentCount; i += grain) {
+            tasks.add(new SplitTask(bounds, i, Math.min(segmentCount, i + grain), chapterPattern));
+        }
+        boolean parallel = allowParallel && tasks.size() > 1 && parallelism > 1;
+        if (parallel) {
+            for (SplitTask task : tasks) {
+                task.fork();
+            }
+        }
+        // 各段找到的章节
+        List<BookChapterBean> found = new ArrayList<>();
+        // 已确定起止位置的章节
+        List<BookChapterBean> chapters = new ArrayList<>();
+        // 尚未确定结束位置的第一章
+        int openChapter = 0;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                SplitTask task = tasks.get(i);
+                found.addAll(parallel ? task.join() : task.splitSequential());
+                boolean last = i == tasks.size() - 1;
+                if (chapterPattern != null) {
+                    // 上一章在下一章开始处结束, 跨段的章节也由此合并, 最后一章在文件末尾结束
+                    for (; openChapter < found.size() - 1 || last && openChapter < found.size(); openChapter++) {
+                        BookChapterBean chapter = found.get(openChapter);
+                        chapter.setEnd(openChapter + 1 < found.size() ? found.get(openChapter + 1).getStart() : fileSize);
+                        addChapter(chapter, chapters);
+                    }
+                } else {
+                    chapters.addAll(found.subList(openChapter, found.size()));
+                    openChapter = found.size();
+                }
+                if (listener != null && !chapters.isEmpty() && !last) {
+                    listener.onChaptersFound(new ArrayList<>(chapters));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            for (SplitTask task : tasks) {
+                task.cancel(true);
+            }
+            throw e.getCause();
+        }
+        return chapters;
+    }
+
+    /**
+     * @return 第一章之前的内容, 没有时为 null
+     */
+    String getIntroduce() {
+        return introduce;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 匹配一段中的章节名
+     */
+    private void findChapters(SegmentScanner scanner, long start, long end, Pattern chapterPattern,
+                              List<BookChapterBean> chapters) throws IOException {
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        // 段首之前补一个换行符, 使段首的 ^ 与后顾断言和整个文件一起匹配时一致
+        boolean afterNewline = start > 0;
+        CharBuffer chars = scanner.decode(bytes, afterNewline);
+        Matcher matcher = chapterPattern.matcher(chars);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(afterNewline ? 1 : 0, chars.limit());
+        while (matcher.find()) {
+            if (start == 0 && chapters.isEmpty() && matcher.start() > 0) {
+                // 序章之前的内容作为简介
+                introduce = chars.subSequence(0, matcher.start()).toString();
+            }
+            BookChapterBean chapter = new BookChapterBean();
+            chapter.setDurChapterName(matcher.group());
+            chapter.setStart(start + scanner.getBytePosition(bytes, matcher.start()));
+            chapters.add(chapter);
+        }
+    }
+
+    /**
+     * 超过 MAX_CHAPTER_LENGTH 的章节在换行处切成多个部分, 第一部分沿用原章节名
+     */
+    private void addChapter(BookChapterBean chapter, List<BookChapterBean> chapters) throws IOException {
+        long start = chapter.getStart();
+        long end = chapter.getEnd();
+        if (end - start <= MAX_CHAPTER_LENGTH) {
+            chapters.add(chapter);
+            return;
+        }
+        int part = 1;
+        while (start < end) {
+            long partEnd = end - start <= MAX_CHAPTER_LENGTH ? end : Math.min(end, findLineEnd(start, start + MAX_CHAPTER_LENGTH));
+            BookChapterBean bean = chapter;
+            if (part > 1) {
+                bean = new BookChapterBean();
+                bean.setDurChapterName(String.format(StringUtils.getString(R.string.chapter_part), chapter.getDurChapterName(), part));
+            }
+            bean.setStart(start);
+            bean.setEnd(partEnd);
+            chapters.add(bean);
+            start = partEnd;
+            part++;
+        }
+    }
+
+    /**
+     * 本地虚拟分章, 每章不超过 MAX_LENGTH_WITH_NO_CHAPTER 后的第一个换行符
+     */
+    private void splitByLength(long start, long end, int blockPos, List<BookChapterBean> chapters) throws IOException {
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int length = bytes.limit();
+        int chapterOffset = 0;
+        int chapterPos = 0;
+        while (chapterOffset < length) {
+            ++chapterPos;
+            int chapterEnd = length;
+            if (length - chapterOffset > MAX_LENGTH_WITH_NO_CHAPTER) {
+                int index = indexOfNewline(bytes, alignUp(chapterOffset + MAX_LENGTH_WITH_NO_CHAPTER), length);
+                if (index >= 0) {
+                    chapterEnd = index + newline.length;
+                }
+            }
+            BookChapterBean chapter = new BookChapterBean();
+            chapter.setDurChapterName(String.format(StringUtils.getString(R.string.chapter), blockPos, chapterPos));
+            chapter.setStart(start + chapterOffset);
+            chapter.setEnd(start + chapterEnd);
+            chapters.add(chapter);
+            chapterOffset = chapterEnd;
+        }
+    }
+
+    /**
+     * 按 SEGMENT_SIZE 切分文件, 每段结束于换行符之后
+     *
+     * @return 各段的起点, 最后一项为文件大小
+     */
+    private long[] getSegmentBounds() throws IOException {
+        long[] bounds = new long[(int) (fileSize / SEGMENT_SIZE) + 2];
+        int count = 0;
+        long start = 0;
+        bounds[count++] = start;
+        while (start < fileSize) {
+            start = start + SEGMENT_SIZE >= fileSize ? fileSize : findLineEnd(start, start + SEGMENT_SIZE);
+            bounds[count++] = start;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * @param charStart from 之前的一个字符起点
+     * @return from 之后第一个换行符的下一个位置, MAX_LINE_LENGTH 内没有换行符时为 from 附近的字符起点,
+     * 不超过文件大小
+     */
+    private long findLineEnd(long charStart, long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        long pos = alignUp(from);
+        long limit = Math.min(fileSize, pos + MAX_LINE_LENGTH);
+        while (pos < limit) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            int aligned = read - read % newline.length;
+            if (aligned <= 0) break;
+            int index = indexOfNewline(buffer, 0, aligned);
+            if (index >= 0) {
+                return pos + index + newline.length;
+            }
+            pos += aligned;
+        }
+        return limit < fileSize ? findCharStart(charStart, alignUp(from)) : fileSize;
+    }
+
+    /**
+     * GBK 等编码无法从字节直接判断字符边界, 从已知的字符起点解码到 pos,
+     * 解码器不会消耗末尾不完整的字符, 停下的位置即为 pos 及之前最近的字符起点
+     */
+    private long findCharStart(long charStart, long pos) throws IOException {
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, charStart, pos - charStart);
+        CharsetDecoder decoder = newDecoder();
+        CharBuffer chars = CharBuffer.allocate(8 * 1024);
+        CoderResult result;
+        do {
+            chars.clear();
+            result = decoder.decode(bytes, chars, false);
+        } while (result.isOverflow());
+        return bytes.position() > 0 ? charStart + bytes.position() : pos;
+    }
+
+    /**
+     * 在 [from, to) 中查找换行符, from 须按换行符的长度对齐
+     */
+    private int indexOfNewline(ByteBuffer buffer, int from, int to) {
+        int unit = newline.length;
+        for (int i = from; i + unit <= to; i += unit) {
+            if (isNewline(buffer, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isNewline(ByteBuffer buffer, int index) {
+        for (int j = 0; j < newline.length; j++) {
+            if (buffer.get(index + j) != newline[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long alignUp(long pos) {
+        int unit = newline.length;
+        return (pos + unit - 1) / unit * unit;
+    }
+
+    private int alignUp(int pos) {
+        int unit = newline.length;
+        return (pos + unit - 1) / unit * unit;
+    }
+
+    private CharsetDecoder newDecoder() {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 处理 [from, to) 内的段
+     */
+    private final class SplitTask extends RecursiveTask<List<BookChapterBean>> {
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final Pattern chapterPattern;
+
+        SplitTask(long[] bounds, int from, int to, Pattern chapterPattern) {
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.chapterPattern = chapterPattern;
+        }
+
+        @Override
+        protected List<BookChapterBean> compute() {
+            try {
+                return splitSequential();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        List<BookChapterBean> splitSequential() throws IOException {
+            List<BookChapterBean> chapters = new ArrayList<>();
+            SegmentScanner scanner = chapterPattern == null ? null : new SegmentScanner();
+            for (int i = from; i < to; i++) {
+                if (chapterPattern == null) {
+                    splitByLength(bounds[i], bounds[i + 1], i + 1, chapters);
+                } else {
+                    findChapters(scanner, bounds[i], bounds[i + 1], chapterPattern, chapters);
+                }
+            }
+            return chapters;
+        }
+    }
+
+    interface ChapterListener {
+        /**
+         * 在分章线程中回调, 列表中的章节起止位置已确定, 之后不会再修改
+         */
+        void onChaptersFound(List<BookChapterBean> chapters);
+    }
+
+    /**
+     * 解码一段, 复用字符缓冲和检查点
+     */
+    private final class SegmentScanner {
+        private final CharsetDecoder decoder = newDecoder();
+        private final CharsetDecoder positionDecoder = newDecoder();
+        private final CharBuffer positionBuffer = CharBuffer.allocate((int) (CHECKPOINT_SIZE * decoder.maxCharsPerByte()) + 2);
+        private CharBuffer chars = CharBuffer.allocate(0);
+        private int[] checkpointBytes = new int[256];
+        private int[] checkpointChars = new int[256];
+        private int checkpointCount;
+
+        CharBuffer decode(ByteBuffer bytes, boolean afterNewline) {
+            int capacity = (int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 2;
+            if (chars.capacity() < capacity) {
+                chars = CharBuffer.allocate(capacity);
+            }
+            chars.clear();
+            if (afterNewline) {
+                chars.put('\n');
+            }
+            decoder.reset();
+            checkpointCount = 0;
+            int limit = bytes.limit();
+            addCheckpoint(bytes.position(), chars.position());
+            while (bytes.position() < limit) {
+                int chunkEnd = Math.min(limit, bytes.position() + CHECKPOINT_SIZE);
+                bytes.limit(chunkEnd);
+                decoder.decode(bytes, chars, chunkEnd == limit);
+                addCheckpoint(bytes.position(), chars.position());
+                if (chunkEnd == limit) break;
+            }
+            bytes.limit(limit);
+            decoder.flush(chars);
+            chars.flip();
+            return chars;
+        }
+
+        /**
+         * 字符位置换算为段内的字节位置
+         */
+        int getBytePosition(ByteBuffer bytes, int charPos) {
+            int index = Arrays.binarySearch(checkpointChars, 0, checkpointCount, charPos);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            int bytePos = checkpointBytes[index];
+            int skip = charPos - checkpointChars[index];
+            if (skip <= 0) {
+                return bytePos;
+            }
+            ByteBuffer in = bytes.duplicate();
+            in.limit(bytes.capacity());
+            in.position(bytePos);
+            positionBuffer.clear();
+            positionBuffer.limit(skip);
+            positionDecoder.reset();
+            positionDecoder.decode(in, positionBuffer, false);
+            return in.position();
+        }
+
+        private void addCheckpoint(int bytePos, int charPos) {
+            if (checkpointCount == checkpointBytes.length) {
+                checkpointBytes = Arrays.copyOf(checkpointBytes, checkpointCount * 2);
+                checkpointChars = Arrays.copyOf(checkpointChars, checkpointCount * 2);
+            }
+            checkpointBytes[checkpointCount] = bytePos;
+            checkpointChars[checkpointCount] = charPos;
+            checkpointCount++;
+        }
+    }
+}
@@ -1,26 +1,35 @@
 package com.jack.bookshelf.widget.page
 
-import android.graphics.Point
+/**
+ * 页面中的一个字, 数据存放在 TxtPage 中
+ */
+class TxtChar internal constructor(val page: TxtPage, val index: Int) {
 
+    val chardata: Char//字符数据
+        get() = page.getChar(index)
 
-class TxtChar {
-    var chardata: Char = ' '//字符数据
+    val charWidth: Float//字符宽度
+        get() = page.getCharWidth(index)
 
-    var selected: Boolean? = false//当前字符是否被选中
+    //文字的位置, 只在 page.hasCharBounds() 时有效
+    val charLeft: Int
+        get() = page.getCharLeft(index)
+    val charTop: Int
+        get() = page.getCharTop(index)
+    val charRight: Int
+        get() = page.getCharRight(index)
+    val charBottom: Int
+        get() = page.getCharBottom(index)
 
-    //记录文字的左上右上左下右下四个点坐标
-    var topLeftPosition: Point? = null//左上
-    var topRightPosition: Point? = null//右上
-    var bottomLeftPosition: Point? = null//左下
-    var bottomRightPosition: Point? = null//右下
+    override fun equals(other: Any?): Boolean {
+        return other is TxtChar && other.page === page && other.index == index
+    }
 
-    var charWidth = 0f//字符宽度
-    var Index = 0//当前字符位置
+    override fun hashCode(): Int {
+        return System.identityHashCode(page) * 31 + index
+    }
 
     override fun toString(): String {
-        return ("ShowChar [chardata=" + chardata + ", Selected=" + selected + ", TopLeftPosition=" + topLeftPosition
-                + ", TopRightPosition=" + topRightPosition + ", BottomLeftPosition=" + bottomLeftPosition
-                + ", BottomRightPosition=" + bottomRightPosition + ", charWidth=" + charWidth + ", Index=" + Index
-                + "]")
+        return ("ShowChar [chardata=" + chardata + ", charWidth=" + charWidth + ", Index=" + index + "]")
     }
-}
\ No newline at end of file
+}
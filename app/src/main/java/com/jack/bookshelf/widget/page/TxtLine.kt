@@ -1,23 +1,27 @@
 package com.jack.bookshelf.widget.page
 
-class TxtLine {
+/**
+ * 页面中一段连续的字 [start, end)
+ */
+class TxtLine(val page: TxtPage, val start: Int, val end: Int) {
 
-    var charsData: List<TxtChar>? = null
+    val charCount: Int
+        get() = end - start
+
+    fun getFirstChar(): TxtChar {
+        return page.getTxtChar(start)
+    }
+
+    fun getLastChar(): TxtChar {
+        return page.getTxtChar(end - 1)
+    }
 
     fun getLineData(): String {
-        var linedata = ""
-        if (charsData == null) return linedata
-        charsData?.let {
-            if (it.isEmpty()) return linedata
-            for (c in it) {
-                linedata += c.chardata
-            }
-        }
-        return linedata
+        return if (end > start) page.getString(start, end) else ""
     }
 
     override fun toString(): String {
         return "ShowLine [Linedata=" + getLineData() + "]"
     }
 
-}
\ No newline at end of file
+}
@@ -8,8 +8,14 @@ class TxtPage(val position: Int) {
     var title: String? = null
     var titleLines: Int = 0 // 当前 lines 中为 title 的行数。
     private val lines = ArrayList<String>()
-    // 存放每个字的位置
-    var txtLists: List<TxtLine>? = null
+
+    // 每个字的数据, 按行连续存放
+    private var chars = CharArray(0)
+    private var charWidths = FloatArray(0)
+    private var lineStarts = IntArray(1)
+
+    // 每个字的位置(左上右下), 按需计算
+    private var charBounds: IntArray? = null
 
     val content: String
         get() {
@@ -20,6 +26,12 @@ class TxtPage(val position: Int) {
             return s.toString()
         }
 
+    /**
+     * 本页记录的字数, 没有逐字数据时为0
+     */
+    val charCount: Int
+        get() = chars.size
+
     fun addLine(line: String) {
         lines.add(line)
     }
@@ -39,4 +51,92 @@ class TxtPage(val position: Int) {
     fun size(): Int {
         return lines.size
     }
+
+    /**
+     * 设置每个字的宽度, 顺序与 lines 中的字一致
+     */
+    fun setCharWidths(widths: FloatArray) {
+        var count = 0
+        for (line in lines) {
+            count += line.length
+        }
+        require(widths.size == count) { "char widths size ${widths.size} != $count" }
+        val chars = CharArray(count)
+        val lineStarts = IntArray(lines.size + 1)
+        var offset = 0
+        for (i in lines.indices) {
+            val line = lines[i]
+            line.toCharArray(chars, offset, 0, line.length)
+            lineStarts[i] = offset
+            offset += line.length
+        }
+        lineStarts[lines.size] = offset
+        this.chars = chars
+        this.charWidths = widths
+        this.lineStarts = lineStarts
+        this.charBounds = null
+    }
+
+    fun hasCharData(): Boolean {
+        return chars.isNotEmpty()
+    }
+
+    fun getChar(index: Int): Char {
+        return chars[index]
+    }
+
+    fun getCharWidth(index: Int): Float {
+        return charWidths[index]
+    }
+
+    fun getLineCharStart(line: Int): Int {
+        return lineStarts[line]
+    }
+
+    fun getLineCharEnd(line: Int): Int {
+        return lineStarts[line + 1]
+    }
+
+    fun getTxtChar(index: Int): TxtChar {
+        return TxtChar(this, index)
+    }
+
+    fun getTxtLine(line: Int): TxtLine {
+        return TxtLine(this, getLineCharStart(line), getLineCharEnd(line))
+    }
+
+    fun getString(start: Int, end: Int): String {
+        return String(chars, start, end - start)
+    }
+
+    /**
+     * 记录字的位置
+     */
+    fun setCharBounds(index: Int, left: Int, top: Int, right: Int, bottom: Int) {
+        val bounds = charBounds ?: IntArray(chars.size * 4).also { charBounds = it }
+        bounds[index * 4] = left
+        bounds[index * 4 + 1] = top
+        bounds[index * 4 + 2] = right
+        bounds[index * 4 + 3] = bottom
+    }
+
+    fun hasCharBounds(): Boolean {
+        return charBounds != null
+    }
+
+    fun getCharLeft(index: Int): Int {
+        return charBounds!![index * 4]
+    }
+
+    fun getCharTop(index: Int): Int {
+        return charBounds!![index * 4 + 1]
+    }
+
+    fun getCharRight(index: Int): Int {
+        return charBounds!![index * 4 + 2]
+    }
+
+    fun getCharBottom(index: Int): Int {
+        return charBounds!![index * 4 + 3]
+    }
 }
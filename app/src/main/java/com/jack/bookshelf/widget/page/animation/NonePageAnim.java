@@ -2,10 +2,14 @@ package com.jack.bookshelf.widget.page.animation;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 
+import com.jack.bookshelf.utils.SystemUtil;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -17,6 +21,9 @@ import java.util.List;
 
 public class NonePageAnim extends PageAnimation {
     List<Bitmap> bitmapList = new ArrayList<>();
+    // 墨水屏使用每像素 1 字节的 ALPHA_8 页面, 只记录墨迹的浓度, 显示时以文字颜色绘制在白色背景上
+    private final boolean inkMask;
+    private final Paint inkPaint = new Paint();
 
     @Override
     public void startAnim() {
@@ -26,9 +33,12 @@ public class NonePageAnim extends PageAnimation {
 
     public NonePageAnim(int w, int h, View view, OnPageChangeListener listener) {
         super(w, h, view, listener);
+        inkMask = SystemUtil.isEInkDevice();
+        setInkColor(readBookControl.getTextColor());
         // 创建图片
+        Bitmap.Config config = inkMask ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
         for (int i = 0; i < 3; i++) {
-            bitmapList.add(Bitmap.createBitmap(mViewWidth, mViewHeight, Bitmap.Config.ARGB_8888));
+            bitmapList.add(Bitmap.createBitmap(mViewWidth, mViewHeight, config));
         }
     }
 
@@ -53,7 +63,24 @@ public class NonePageAnim extends PageAnimation {
         return true;
     }
 
-    public void drawMove(Canvas canvas) {canvas.drawBitmap(bitmapList.get(1), 0, 0, null);}
+    /**
+     * 墨迹的颜色, 不透明
+     */
+    public void setInkColor(int color) {
+        inkPaint.setColor(color);
+        inkPaint.setAlpha(255);
+    }
+
+    public void drawMove(Canvas canvas) {drawPageBitmap(canvas, bitmapList.get(1));}
+
+    private void drawPageBitmap(Canvas canvas, Bitmap bitmap) {
+        if (inkMask) {
+            canvas.drawColor(Color.WHITE);
+            canvas.drawBitmap(bitmap, 0, 0, inkPaint);
+        } else {
+            canvas.drawBitmap(bitmap, 0, 0, null);
+        }
+    }
 
     @Override
     public void onTouchEvent(MotionEvent event) {
@@ -154,7 +181,7 @@ public class NonePageAnim extends PageAnimation {
         if (isRunning && !noNext) {
             drawMove(canvas);
         } else {
-            canvas.drawBitmap(getBgBitmap(0), 0, 0, null);
+            drawPageBitmap(canvas, getBgBitmap(0));
             isCancel = true;
         }
     }
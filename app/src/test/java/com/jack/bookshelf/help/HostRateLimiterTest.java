@@ -0,0 +1,98 @@
+package com.jack.bookshelf.help;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * 按主机限制请求
+ * 命中磁盘缓存的请求归还令牌, 不推迟之后发送到服务器的请求
+ */
+public class HostRateLimiterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private Cache cache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        cache = new Cache(folder.newFolder("http"), 1024 * 1024);
+        client = new OkHttpClient.Builder()
+                .cache(cache)
+                .addInterceptor(HostRateLimiter.getInstance())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        cache.close();
+    }
+
+    @Test
+    public void cacheHitReturnsToken() throws IOException {
+        server.enqueue(new MockResponse().setHeader("Cache-Control", "max-age=60").setBody("目录"));
+        server.enqueue(new MockResponse().setBody("正文"));
+        // 每秒两个请求, 令牌桶容量为 2
+        try (Response response = call("/catalog", "6/2")) {
+            assertNotNull(response.networkResponse());
+        }
+        try (Response response = call("/catalog", null)) {
+            assertNull(response.networkResponse());
+        }
+        long start = System.nanoTime();
+        try (Response response = call("/chapter", null)) {
+            assertNotNull(response.networkResponse());
+        }
+        // 不归还令牌时需要等待 500ms
+        long waitedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue("waited " + waitedMs + "ms", waitedMs < 250);
+        assertEquals(2, server.getRequestCount());
+        assertTrue(HostRateLimiter.getInstance().getStats(), HostRateLimiter.getInstance().getStats().contains(" cached=1 "));
+    }
+
+    @Test
+    public void onlyIfCachedIsNotLimited() throws IOException {
+        // 不会连接服务器, 使用单独的主机以免影响其他测试的限制
+        Request request = new Request.Builder().url("http://cache.invalid/missing")
+                .header(HostRateLimiter.HEADER, "1/0.001")
+                .cacheControl(CacheControl.FORCE_CACHE)
+                .build();
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            try (Response response = client.newCall(request).execute()) {
+                assertEquals(504, response.code());
+            }
+        }
+        assertTrue((System.nanoTime() - start) / 1000000 < 250);
+    }
+
+    private Response call(String path, String rateLimit) throws IOException {
+        Request.Builder builder = new Request.Builder().url(server.url(path));
+        if (rateLimit != null) {
+            builder.header(HostRateLimiter.HEADER, rateLimit);
+        }
+        return client.newCall(builder.build()).execute();
+    }
+}
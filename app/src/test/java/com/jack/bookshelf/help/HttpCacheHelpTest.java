@@ -0,0 +1,195 @@
+package com.jack.bookshelf.help;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jack.bookshelf.bean.BaseChapterBean;
+import com.jack.bookshelf.model.impl.IHttpGetApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Converter;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
+
+/**
+ * 目录页的缓存校验
+ * 第一次请求写入缓存, 之后带 ETag 向服务器校验, 服务器返回 304 时使用缓存的内容;
+ * 已保存的目录与书籍记录的章节数或书源不一致时不能直接使用
+ */
+public class HttpCacheHelpTest {
+    private static final String TAG = "https://source.example";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private Cache cache;
+    private IHttpGetApi api;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        cache = new Cache(folder.newFolder("http"), HttpCacheHelp.CACHE_SIZE);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .cache(cache)
+                .addInterceptor(HttpCacheHelp.getHeaderInterceptor())
+                .build();
+        api = new Retrofit.Builder().baseUrl(server.url("/"))
+                .addConverterFactory(new StringConverterFactory())
+                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+                .client(client)
+                .build()
+                .create(IHttpGetApi.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        cache.close();
+    }
+
+    @Test
+    public void notModifiedCatalogReusesCachedBody() throws InterruptedException {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("<ul><li>第一章</li></ul>"));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("<ul><li>第一章</li><li>第二章</li></ul>"));
+
+        Response<String> first = getCatalog();
+        assertFalse(HttpCacheHelp.isNotModified(first));
+        assertEquals("<ul><li>第一章</li></ul>", first.body());
+        RecordedRequest request = server.takeRequest();
+        assertEquals("max-age=0", request.getHeader("Cache-Control"));
+        assertNull(request.getHeader("If-None-Match"));
+
+        Response<String> second = getCatalog();
+        assertTrue(HttpCacheHelp.isNotModified(second));
+        assertEquals("<ul><li>第一章</li></ul>", second.body());
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+
+        Response<String> third = getCatalog();
+        assertFalse(HttpCacheHelp.isNotModified(third));
+        assertEquals("<ul><li>第一章</li><li>第二章</li></ul>", third.body());
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void otherRequestsBypassCache() throws InterruptedException {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("正文"));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("正文"));
+
+        Response<String> first = api.get("/chapter", new HashMap<>()).blockingFirst();
+        Response<String> second = api.get("/chapter", new HashMap<>()).blockingFirst();
+        assertFalse(HttpCacheHelp.isNotModified(first));
+        assertFalse(HttpCacheHelp.isNotModified(second));
+        assertEquals("no-cache, no-store", server.takeRequest().getHeader("Cache-Control"));
+        // 没有写入缓存, 不会带 ETag 校验
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void sourceCacheControlIsKept() throws InterruptedException {
+        Map<String, String> headerMap = new HashMap<>();
+        headerMap.put("Cache-Control", "no-cache");
+        server.enqueue(new MockResponse().setBody("目录"));
+        api.get("/catalog", HttpCacheHelp.revalidateHeaderMap(headerMap)).blockingFirst();
+        assertEquals("no-cache", server.takeRequest().getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void savedChapterListMustMatchBook() throws InterruptedException {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("目录"));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        getCatalog();
+        assertTrue(HttpCacheHelp.isNotModified(getCatalog()));
+
+        List<Chapter> saved = chapters(TAG, 3);
+        assertTrue(HttpCacheHelp.canReuseChapterList(saved, 3, TAG));
+        // 书籍记录的章节数与保存的目录不一致, 上次保存的目录不完整, 重新解析
+        assertFalse(HttpCacheHelp.canReuseChapterList(saved, 4, TAG));
+        assertFalse(HttpCacheHelp.canReuseChapterList(saved, 2, TAG));
+        // 换源后保存的是其他书源的目录
+        assertFalse(HttpCacheHelp.canReuseChapterList(chapters("https://other.example", 3), 3, TAG));
+        assertFalse(HttpCacheHelp.canReuseChapterList(Collections.<Chapter>emptyList(), 0, TAG));
+    }
+
+    private Response<String> getCatalog() {
+        return api.get("/catalog", HttpCacheHelp.revalidateHeaderMap(new HashMap<>())).blockingFirst();
+    }
+
+    private static List<Chapter> chapters(String tag, int count) {
+        List<Chapter> chapters = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chapters.add(new Chapter(tag, i));
+        }
+        return chapters;
+    }
+
+    private static final class Chapter implements BaseChapterBean {
+        private final String tag;
+        private final int index;
+
+        Chapter(String tag, int index) {
+            this.tag = tag;
+            this.index = index;
+        }
+
+        @Override
+        public String getTag() {
+            return tag;
+        }
+
+        @Override
+        public String getDurChapterUrl() {
+            return tag + "/" + index;
+        }
+
+        @Override
+        public int getDurChapterIndex() {
+            return index;
+        }
+
+        @Override
+        public String getNoteUrl() {
+            return tag + "/book";
+        }
+
+        @Override
+        public String getDurChapterName() {
+            return "第" + (index + 1) + "章";
+        }
+    }
+
+    /**
+     * 按 UTF-8 读取正文, EncodeConverter 依赖 Android 的 TextUtils
+     */
+    private static final class StringConverterFactory extends Converter.Factory {
+        @Override
+        public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+            return ResponseBody::string;
+        }
+    }
+}
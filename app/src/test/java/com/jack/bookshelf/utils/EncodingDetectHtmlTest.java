@@ -0,0 +1,135 @@
+package com.jack.bookshelf.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 网页编码的查找
+ * 只认 BOM、XML 声明与 head 中的 meta, 注释、脚本与 body 中出现的 charset 不算声明
+ */
+public class EncodingDetectHtmlTest {
+    private static final String BODY = "<body><div id=\"content\">"
+            + "　　天色已晚，他独自走在回家的路上。远处传来几声钟响，街道两旁的灯火渐次亮起，"
+            + "空气中弥漫着桂花的香气。这座小城他已经离开了整整十年，记忆里的青石板路如今铺上了柏油，"
+            + "只有巷口那棵老槐树还站在原地，枝叶比从前更加茂盛。</div></body></html>";
+
+    @Test
+    public void byteOrderMarkWinsOverDeclaration() {
+        byte[] html = html("<meta charset=\"gbk\">", StandardCharsets.UTF_8);
+        byte[] bytes = new byte[html.length + 3];
+        bytes[0] = (byte) 0xEF;
+        bytes[1] = (byte) 0xBB;
+        bytes[2] = (byte) 0xBF;
+        System.arraycopy(html, 0, bytes, 3, html.length);
+        assertCharset("UTF-8", bytes);
+    }
+
+    @Test
+    public void xmlDeclaration() {
+        byte[] bytes = ("<?xml version=\"1.0\" encoding=\"GBK\"?>\n<html><head><title>第一章</title></head>" + BODY)
+                .getBytes(Charset.forName("GBK"));
+        assertCharset("GBK", bytes);
+        bytes = ("<?XML version='1.0' encoding='big5' standalone='yes'?><html><head></head>" + BODY)
+                .getBytes(Charset.forName("Big5"));
+        assertCharset("Big5", bytes);
+    }
+
+    @Test
+    public void metaCharset() {
+        assertCharset("Big5", html("<meta charset=big5>", Charset.forName("Big5")));
+        assertCharset("UTF-8", html("<META CHARSET = \"utf-8\" />", StandardCharsets.UTF_8));
+        // 声明为 GB2312 的网页按 GBK 读取
+        assertCharset("GBK", html("<meta charset=\"gb2312\">", Charset.forName("GBK")));
+    }
+
+    @Test
+    public void httpEquivContentType() {
+        assertCharset("GBK", html("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=gbk\">",
+                Charset.forName("GBK")));
+        assertCharset("Big5", html("<meta content='text/html;charset=BIG5' http-equiv='content-type'>",
+                Charset.forName("Big5")));
+        // 其他 http-equiv 中的 charset 不是声明
+        assertCharset("UTF-8", html("<meta http-equiv=\"refresh\" content=\"5; charset=big5\">",
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void charsetInCommentIsIgnored() {
+        assertCharset("UTF-8", html("<!-- <meta charset=\"big5\"> -->", StandardCharsets.UTF_8));
+        assertCharset("GBK", html("<!-- <meta charset=\"big5\"> --><meta charset=\"gbk\">",
+                Charset.forName("GBK")));
+    }
+
+    @Test
+    public void charsetInScriptOrStyleIsIgnored() {
+        assertCharset("UTF-8", html("<script>document.write('<meta charset=\"big5\">');</script>",
+                StandardCharsets.UTF_8));
+        assertCharset("UTF-8", html("<style>/* <meta charset=big5> */ body {}</style>", StandardCharsets.UTF_8));
+        assertCharset("GBK", html("<SCRIPT type=\"text/javascript\">var a = '<meta charset=big5>';</SCRIPT>"
+                + "<meta charset=gbk>", Charset.forName("GBK")));
+    }
+
+    @Test
+    public void charsetInBodyIsIgnored() {
+        byte[] bytes = ("<html><head><title>第一章</title></head><body><meta charset=\"big5\">" + BODY)
+                .getBytes(StandardCharsets.UTF_8);
+        assertCharset("UTF-8", bytes);
+    }
+
+    @Test
+    public void unsupportedCharsetFallsBackToDetection() {
+        assertCharset("UTF-8", html("<meta charset=\"no-such-charset\">", StandardCharsets.UTF_8));
+        // 按字节读到的 utf-16 声明不可能属实
+        assertCharset("UTF-8", html("<meta charset=\"utf-16\">", StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 与原先解码整个网页后用 Jsoup 查找 meta 的做法比较, 只输出耗时, 不作断言
+     */
+    @Test
+    public void benchmarkAgainstJsoup() {
+        StringBuilder page = new StringBuilder("<html><head><title>第一章</title>"
+                + "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=gbk\"></head><body>");
+        while (page.length() < 16 * 1024) {
+            page.append("<p>").append(BODY, 30, BODY.length() - 20).append("</p>\n");
+        }
+        page.append("</body></html>");
+        byte[] bytes = page.toString().getBytes(Charset.forName("GBK"));
+        int rounds = 500;
+        long scan = 0, jsoup = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // 第一遍为预热
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink = EncodingDetect.getEncodeInHtml(bytes);
+            }
+            scan = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                for (Element meta : Jsoup.parse(new String(bytes, StandardCharsets.UTF_8)).getElementsByTag("meta")) {
+                    sink = meta.attr("content");
+                }
+            }
+            jsoup = System.nanoTime() - start;
+        }
+        System.out.println("getEncodeInHtml " + bytes.length / 1024 + "KB page: scan "
+                + scan / rounds / 1000 + "us, Jsoup " + jsoup / rounds / 1000 + "us");
+    }
+
+    private static Object sink;
+
+    private static byte[] html(String head, Charset charset) {
+        return ("<!DOCTYPE html><html><head><title>第一章</title>" + head + "</head>" + BODY).getBytes(charset);
+    }
+
+    private static void assertCharset(String expected, byte[] bytes) {
+        String charset = EncodingDetect.getEncodeInHtml(bytes);
+        assertEquals(charset, Charset.forName(expected), Charset.forName(charset));
+    }
+}
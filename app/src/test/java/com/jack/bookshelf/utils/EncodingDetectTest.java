@@ -0,0 +1,172 @@
+package com.jack.bookshelf.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 文件编码检测
+ * 语料为 ASCII 开头(版权声明、目录等)加中文正文, 检测结果须能正确解码全文;
+ * 分段统计的得分须与一次统计整个数组相同
+ */
+public class EncodingDetectTest {
+    private static final String SIMPLIFIED = "第一章 归乡\n"
+            + "　　天色已晚，他独自走在回家的路上。远处传来几声钟响，街道两旁的灯火渐次亮起，"
+            + "空气中弥漫着桂花的香气。这座小城他已经离开了整整十年，记忆里的青石板路如今铺上了柏油，"
+            + "只有巷口那棵老槐树还站在原地，枝叶比从前更加茂盛。\n"
+            + "　　“你终于回来了。”母亲站在门口，手里还拿着没有织完的毛衣。她的头发白了许多，"
+            + "眼睛却依旧明亮。他想说些什么，话到嘴边却只剩下一句：“妈，我饿了。”\n"
+            + "　　厨房里很快飘出饭菜的味道。父亲从里屋走出来，拍了拍他的肩膀，没有多问，"
+            + "只是把桌上的茶杯往他面前推了推。窗外的月亮升起来了，照在院子里那口老井上。\n";
+    private static final String TRADITIONAL = "第一章 歸鄉\n"
+            + "　　天色已晚，他獨自走在回家的路上。遠處傳來幾聲鐘響，街道兩旁的燈火漸次亮起，"
+            + "空氣中瀰漫著桂花的香氣。這座小城他已經離開了整整十年，記憶裡的青石板路如今鋪上了柏油，"
+            + "只有巷口那棵老槐樹還站在原地，枝葉比從前更加茂盛。\n"
+            + "　　「你終於回來了。」母親站在門口，手裡還拿著沒有織完的毛衣。她的頭髮白了許多，"
+            + "眼睛卻依舊明亮。他想說些什麼，話到嘴邊卻只剩下一句：「媽，我餓了。」\n"
+            + "　　廚房裡很快飄出飯菜的味道。父親從裡屋走出來，拍了拍他的肩膀，沒有多問，"
+            + "只是把桌上的茶杯往他面前推了推。窗外的月亮升起來了，照在院子裡那口老井上。\n";
+    private static final String FRONT_MATTER_LINE = "This file is distributed for personal reading only. "
+            + "Chapter index and license notice follow. Line ";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void detectsBodyAfterShortAsciiFrontMatter() throws IOException {
+        assertDecodes("GBK", SIMPLIFIED, 2 * 1024);
+        assertDecodes("UTF-8", SIMPLIFIED, 2 * 1024);
+        assertDecodes("Big5", TRADITIONAL, 2 * 1024);
+    }
+
+    @Test
+    public void detectsBodyAfterLongAsciiFrontMatter() throws IOException {
+        // 首个分块全是 ASCII, 需要继续读取
+        assertDecodes("GBK", SIMPLIFIED, 20 * 1024);
+        assertDecodes("UTF-8", SIMPLIFIED, 20 * 1024);
+        assertDecodes("Big5", TRADITIONAL, 20 * 1024);
+    }
+
+    @Test
+    public void detectsByteOrderMark() throws IOException {
+        byte[] body = SIMPLIFIED.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[body.length + 3];
+        bytes[0] = (byte) 0xEF;
+        bytes[1] = (byte) 0xBB;
+        bytes[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, bytes, 3, body.length);
+        assertEquals("UTF-8", EncodingDetect.getJavaEncode(write(bytes)));
+        byte[] utf16 = ("﻿" + SIMPLIFIED).getBytes(StandardCharsets.UTF_16LE);
+        assertEquals("UTF-16LE", EncodingDetect.getJavaEncode(write(utf16)));
+    }
+
+    @Test
+    public void incrementalScoresMatchWholeArray() {
+        Random random = new Random(1);
+        BytesEncodingDetect detector = new BytesEncodingDetect();
+        for (String charset : new String[]{"GBK", "UTF-8", "Big5", "EUC-KR", "Shift_JIS"}) {
+            String text = charset.equals("Big5") ? TRADITIONAL : SIMPLIFIED;
+            byte[] bytes = corpus(charset, text, 1024);
+            int[] expected = detector.getScores(bytes);
+            for (int round = 0; round < 20; round++) {
+                BytesEncodingDetect.Scores scores = new BytesEncodingDetect.Scores();
+                int length = 0;
+                while (length < bytes.length) {
+                    // 分段的边界随机落在多字节字符中间
+                    length = Math.min(bytes.length, length + 1 + random.nextInt(round == 0 ? 3 : 4096));
+                    scores.feed(bytes, length, length == bytes.length);
+                }
+                assertArrayEquals(charset, expected, scores.get());
+            }
+        }
+        // 随机字节覆盖 HZ、ISO-2022 等转义序列的分支
+        for (int round = 0; round < 200; round++) {
+            byte[] bytes = new byte[random.nextInt(4096)];
+            random.nextBytes(bytes);
+            for (int i = 0; i < bytes.length; i++) {
+                if (random.nextInt(4) == 0) bytes[i] = (byte) "~{}\u001b$)AGB(\n".charAt(random.nextInt(11));
+            }
+            BytesEncodingDetect.Scores scores = new BytesEncodingDetect.Scores();
+            int length = 0;
+            while (length < bytes.length) {
+                length = Math.min(bytes.length, length + 1 + random.nextInt(64));
+                scores.feed(bytes, length, length == bytes.length);
+            }
+            if (bytes.length == 0) scores.feed(bytes, 0, true);
+            assertArrayEquals(detector.getScores(bytes), scores.get());
+        }
+    }
+
+    /**
+     * 与每次加倍后重新统计整个前缀的做法比较, 只输出耗时, 不作断言
+     */
+    @Test
+    public void benchmarkIncrementalDetection() {
+        byte[] bytes = corpus("GBK", SIMPLIFIED, 40 * 1024);
+        int window = Math.min(EncodingDetect.DEFAULT_WINDOW, bytes.length);
+        BytesEncodingDetect detector = new BytesEncodingDetect();
+        int rounds = 200;
+        long incremental = 0, rescoring = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // 第一遍为预热
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                BytesEncodingDetect.Scores scores = new BytesEncodingDetect.Scores();
+                for (int length = 4 * 1024; ; length = Math.min(length * 2, window)) {
+                    scores.feed(bytes, length, length == window);
+                    scores.get();
+                    if (length == window) break;
+                }
+            }
+            incremental = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                for (int length = 4 * 1024; ; length = Math.min(length * 2, window)) {
+                    detector.getScores(Arrays.copyOf(bytes, length));
+                    if (length == window) break;
+                }
+            }
+            rescoring = System.nanoTime() - start;
+        }
+        System.out.println("EncodingDetect " + window / 1024 + "KB window: incremental "
+                + incremental / rounds / 1000 + "us/file, rescoring "
+                + rescoring / rounds / 1000 + "us/file");
+    }
+
+    private void assertDecodes(String charset, String text, int frontMatterBytes) throws IOException {
+        byte[] bytes = corpus(charset, text, frontMatterBytes);
+        String detected = EncodingDetect.getJavaEncode(write(bytes));
+        assertEquals(charset + " detected as " + detected,
+                new String(bytes, Charset.forName(charset)), new String(bytes, Charset.forName(detected)));
+    }
+
+    private static byte[] corpus(String charset, String text, int frontMatterBytes) {
+        StringBuilder builder = new StringBuilder();
+        for (int line = 1; builder.length() < frontMatterBytes; line++) {
+            builder.append(FRONT_MATTER_LINE).append(line).append('\n');
+        }
+        while (builder.length() < frontMatterBytes + 16 * 1024) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(Charset.forName(charset));
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,141 @@
+package com.jack.bookshelf.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * 合并同时进行的相同请求
+ * 多个线程同时订阅同一章节时服务器只收到一次请求, 结束后再订阅重新请求
+ */
+public class SingleFlightTest {
+    private static final int SUBSCRIBERS = 16;
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private SingleFlight<String> singleFlight;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        singleFlight = new SingleFlight<>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentSubscribersShareOneRequest() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("第一章").setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        List<TestObserver<String>> observers = subscribeConcurrently("/1");
+        for (TestObserver<String> observer : observers) {
+            observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+            observer.assertResult("第一章");
+        }
+        assertEquals(1, server.getRequestCount());
+        assertTrue(singleFlight.toString(), singleFlight.toString().startsWith("requests=16 shared=15 inFlight=0 "));
+
+        // 请求结束后重新请求
+        server.enqueue(new MockResponse().setBody("第一章 (修订)"));
+        singleFlight.get("/1", () -> fetch("/1")).test().awaitDone(5, TimeUnit.SECONDS).assertResult("第一章 (修订)");
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void differentKeysDoNotShare() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("正文").setHeadersDelay(100, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("正文").setHeadersDelay(100, TimeUnit.MILLISECONDS));
+        TestObserver<String> first = singleFlight.get("/1", () -> fetch("/1")).test();
+        TestObserver<String> second = singleFlight.get("/2", () -> fetch("/2")).test();
+        first.awaitDone(5, TimeUnit.SECONDS).assertResult("正文");
+        second.awaitDone(5, TimeUnit.SECONDS).assertResult("正文");
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void errorIsSharedThenRetried() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(500).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        for (TestObserver<String> observer : subscribeConcurrently("/1")) {
+            observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+            observer.assertError(IOException.class);
+        }
+        assertEquals(1, server.getRequestCount());
+
+        server.enqueue(new MockResponse().setBody("第一章"));
+        singleFlight.get("/1", () -> fetch("/1")).test().awaitDone(5, TimeUnit.SECONDS).assertResult("第一章");
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void disposingOneSubscriberKeepsOthers() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("第一章").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        TestObserver<String> disposed = singleFlight.get("/1", () -> fetch("/1")).test();
+        TestObserver<String> kept = singleFlight.get("/1", () -> fetch("/1")).test();
+        Thread.sleep(50);
+        disposed.dispose();
+        kept.awaitDone(5, TimeUnit.SECONDS).assertResult("第一章");
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * 所有线程就绪后同时订阅
+     */
+    private List<TestObserver<String>> subscribeConcurrently(String path) throws InterruptedException {
+        List<TestObserver<String>> observers = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(SUBSCRIBERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            TestObserver<String> observer = new TestObserver<>();
+            observers.add(observer);
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                singleFlight.get(path, () -> fetch(path)).subscribe(observer);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return observers;
+    }
+
+    private Observable<String> fetch(String path) {
+        return Observable.fromCallable(() -> {
+            try (Response response = client.newCall(new Request.Builder().url(server.url(path)).build()).execute()) {
+                if (!response.isSuccessful()) throw new IOException("HTTP " + response.code());
+                return response.body().string();
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+}
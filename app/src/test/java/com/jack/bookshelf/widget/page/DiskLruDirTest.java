@@ -0,0 +1,119 @@
+package com.jack.bookshelf.widget.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓存目录
+ * 多个线程同时读写同一个键时只会读到完整的文件; 超出清理阈值后按最近使用时间保留 maxEntries 个
+ */
+public class DiskLruDirTest {
+    private static final String KEY = "0123456789abcdef0123456789abcdef";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentWritersAndReadersSeeWholeFiles() throws Exception {
+        DiskLruDir cache = new DiskLruDir(folder.newFolder("cache"), 10);
+        write(cache, KEY);
+        AtomicInteger readCount = new AtomicInteger();
+        AtomicInteger badCount = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int value = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    // 每个文件写入同一个数字 16K 次
+                    cache.write(KEY, out -> {
+                        out.writeInt(16 * 1024);
+                        for (int j = 0; j < 16 * 1024; j++) {
+                            out.writeInt(value);
+                        }
+                    });
+                }
+            }));
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    Boolean whole = cache.read(KEY, in -> {
+                        int count = in.readInt();
+                        if (count == 1) return true;
+                        int first = in.readInt();
+                        for (int j = 1; j < count; j++) {
+                            if (in.readInt() != first) return false;
+                        }
+                        return true;
+                    });
+                    if (whole != null) {
+                        readCount.incrementAndGet();
+                        if (!whole) badCount.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, badCount.get());
+        assertTrue(readCount.get() > 0);
+        assertNotNull(cache.read(KEY, in -> in.readInt()));
+    }
+
+    @Test
+    public void trimKeepsRecentlyUsedEntries() throws IOException {
+        File dir = folder.newFolder("cache");
+        DiskLruDir cache = new DiskLruDir(dir, 10);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 11; i++) {
+            write(cache, "key" + i);
+            // 修改时间依次递增, key0 最久未使用
+            assertTrue(new File(dir, "key" + i).setLastModified(now - (100 - i) * 1000L));
+        }
+        // 第一次写入时统计文件数; 未超过清理阈值时不清理
+        assertEquals(11, countFiles(dir));
+        assertNotNull(cache.read("key0", in -> in.readInt()));
+        write(cache, "key11");
+        assertEquals(10, countFiles(dir));
+        // key0 读取过, key1 与 key2 最久未使用
+        assertTrue(new File(dir, "key0").exists());
+        assertFalse(new File(dir, "key1").exists());
+        assertFalse(new File(dir, "key2").exists());
+        assertTrue(new File(dir, "key11").exists());
+    }
+
+    @Test
+    public void trimRemovesStaleTempFiles() throws IOException {
+        File dir = folder.newFolder("cache");
+        DiskLruDir cache = new DiskLruDir(dir, 10);
+        File stale = new File(dir, KEY + "-1.tmp");
+        File writing = new File(dir, KEY + "-2.tmp");
+        assertTrue(stale.createNewFile());
+        assertTrue(writing.createNewFile());
+        assertTrue(stale.setLastModified(System.currentTimeMillis() - 10 * 60 * 1000));
+        write(cache, KEY);
+        assertFalse(stale.exists());
+        assertTrue(writing.exists());
+        assertNull(cache.read("missing", in -> in.readInt()));
+    }
+
+    private static void write(DiskLruDir cache, String key) {
+        cache.write(key, out -> out.writeInt(1));
+    }
+
+    private static int countFiles(File dir) {
+        String[] names = dir.list();
+        return names == null ? 0 : names.length;
+    }
+}
@@ -0,0 +1,158 @@
+package com.jack.bookshelf.widget.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * EPUB 章节转纯文本
+ * 以原来用 Jsoup 逐个元素取文本节点的转换为参照, 块级结构的章节输出须完全相同;
+ * 有意的差异: 行内元素不再把句子拆成乱序的段落, ruby 注音不再输出
+ * 章节名与 Jsoup 读取的 title 相同
+ */
+public class EpubTextExtractorTest {
+    private static final String HEAD = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" \"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">\n"
+            + "<html xmlns=\"http://www.w3.org/1999/xhtml\">\n<head>\n  <title>第一章 归乡</title>\n"
+            + "  <link href=\"../Styles/style.css\" rel=\"stylesheet\" type=\"text/css\"/>\n"
+            + "  <style type=\"text/css\">p { text-indent: 2em; }</style>\n</head>\n";
+
+    private static final String[] FIXTURES = {
+            HEAD + "<body>\n<h2 class=\"title\">第一章 归乡</h2>\n"
+                    + "<p>天色已晚，他独自走在回家的路上。</p>\n"
+                    + "<p>\n    远处传来几声钟响，\n    街道两旁的灯火渐次亮起。\n</p>\n"
+                    + "<div><p>“你终于回来了。”</p><p>母亲站在门口。</p></div>\n</body>\n</html>",
+            // 实体, 解码后没有 < 时不经过 formatHtml
+            HEAD + "<body><p>&laquo;序章&raquo; &amp; &quot;引子&quot; a &gt; b</p>"
+                    + "<p>&#20013;&#x6587;&hellip;&mdash;&copy;</p><p>未知实体 &foo; 与 AT&T</p></body></html>",
+            // 不换行空格与空白
+            HEAD + "<body><p>&nbsp;&nbsp;&nbsp;&nbsp;段首缩进</p><p>&nbsp;</p>"
+                    + "<p>中间&nbsp;&nbsp;两个 空格</p><p>\t制表\r\n换行  </p></body></html>",
+            // 换行, 列表与表格
+            HEAD + "<body><div>第一行<br/>第二行<br>第三行</div>"
+                    + "<ul><li>甲</li><li>乙</li></ul>"
+                    + "<table><tr><td>一</td><td>二</td></tr></table><hr/><blockquote>引文</blockquote></body></html>",
+            // 注释, 脚本与样式的内容不是正文
+            HEAD + "<body><!-- <p>注释</p> --><p>正文</p>"
+                    + "<script type=\"text/javascript\">var s = '<p>脚本</p>';</script>"
+                    + "<SCRIPT>if (a < b) {}</SCRIPT><p>结尾</p></body></html>",
+            // 只有一层 div 的章节
+            HEAD + "<body><div class=\"chapter\">整章只有一段文字。</div></body></html>",
+    };
+
+    @Test
+    public void blockStructuredChaptersMatchJsoup() throws IOException {
+        for (String html : FIXTURES) {
+            assertEquals(html, jsoupParagraphs(html), EpubTextExtractor.extract(new StringReader(html)));
+        }
+    }
+
+    @Test
+    public void bufferBoundariesDoNotChangeOutput() throws IOException {
+        for (String html : FIXTURES) {
+            assertEquals(html, jsoupParagraphs(html), EpubTextExtractor.extract(new OneCharReader(html)));
+        }
+    }
+
+    @Test
+    public void nbspCollapsesLikeJsoup() throws IOException {
+        String html = FIXTURES[2];
+        assertEquals("　　第一章 归乡\r\n　　段首缩进\r\n　　中间 两个 空格\r\n　　制表 换行",
+                EpubTextExtractor.extract(new StringReader(html)));
+    }
+
+    @Test
+    public void inlineElementsKeepDocumentOrder() throws IOException {
+        String html = "<html><body><p>他说：<b>快走</b>，然后<i>转身</i>离开。</p></body></html>";
+        // 原来的转换按元素输出文本节点, 行内元素的文字被移到段落之后
+        assertEquals("　　他说：\r\n　　，然后\r\n　　离开。\r\n　　快走\r\n　　转身", jsoupParagraphs(html));
+        assertEquals("　　他说：快走，然后转身离开。", EpubTextExtractor.extract(new StringReader(html)));
+    }
+
+    @Test
+    public void rubyAnnotationsAreDropped() throws IOException {
+        String html = "<html><body><p>这是<ruby>汉<rp>(</rp><rt>hàn</rt><rp>)</rp></ruby>字。</p></body></html>";
+        assertNotEquals(jsoupParagraphs(html), EpubTextExtractor.extract(new StringReader(html)));
+        assertEquals("　　这是汉字。", EpubTextExtractor.extract(new StringReader(html)));
+    }
+
+    @Test
+    public void titleMatchesJsoup() throws IOException {
+        String[] heads = {
+                HEAD,
+                "<html><head><script>var t = '<title>脚本</title>';</script>"
+                        + "<title>\n  第二章&nbsp; &amp; 尾声 </title></head>",
+                "<html><head><!-- <title>注释</title> --><TITLE>第三章</TITLE></head>",
+                "<html><head><title></title></head>",
+        };
+        for (String head : heads) {
+            String html = head + "<body><p>正文</p></body></html>";
+            String expected = Jsoup.parse(html).getElementsByTag("title").get(0).text();
+            assertEquals(html, expected, EpubTextExtractor.readTitle(new StringReader(html)));
+            assertEquals(html, expected, EpubTextExtractor.readTitle(new OneCharReader(html)));
+        }
+    }
+
+    @Test
+    public void titleStopsAtBody() throws IOException {
+        assertNull(EpubTextExtractor.readTitle(new StringReader("<html><head></head><body><p>正文</p></body></html>")));
+        // 正文中 svg 的 title 不是章节名
+        assertNull(EpubTextExtractor.readTitle(new StringReader(
+                "<html><head></head><body><svg><title>插图</title></svg></body></html>")));
+        // 找到 title 后不再读取, 之后的内容不完整也无妨
+        assertEquals("第四章", EpubTextExtractor.readTitle(new StringReader("<html><head><title>第四章</title><p")));
+    }
+
+    /**
+     * 原来的转换: 逐个元素取出文本节点, 每段前加两个全角空格
+     * 参照文本中没有标签样式的文字, 省略原来的 formatHtml
+     */
+    private static String jsoupParagraphs(String html) {
+        StringBuilder content = new StringBuilder();
+        for (Element element : Jsoup.parse(html).getAllElements()) {
+            for (TextNode node : element.textNodes()) {
+                String text = node.text().trim();
+                if (text.length() > 0) {
+                    if (content.length() > 0) {
+                        content.append("\r\n");
+                    }
+                    content.append("　　").append(text);
+                }
+            }
+        }
+        return content.toString();
+    }
+
+    /**
+     * 每次只返回一个字符, 使标签、实体与结束标记跨越缓冲区边界
+     */
+    private static final class OneCharReader extends Reader {
+        private final String text;
+        private int position;
+
+        OneCharReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (position == text.length()) return -1;
+            if (len == 0) return 0;
+            cbuf[off] = text.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.jack.bookshelf.widget.page;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分页
+ * 整段断行一次的结果须与原来逐行重新排版剩余文字的结果相同:
+ * 以换行结尾的段落, Layout 最后有一个空行, 不能排入页面, 也不能占用高度
+ */
+public class PageBreakerTest {
+    // 一行可显示的字数
+    private static final int TITLE_CHARS = 12;
+    private static final int TEXT_CHARS = 16;
+    private static final PageBreaker.Metrics METRICS = new PageBreaker.Metrics(600, 26.5f, 24.5f, 13, 12, 20, 18);
+
+    @Test
+    public void multiParagraphChapterMatchesBaseline() {
+        StringBuilder chapter = new StringBuilder("第一章 这是一个较长的标题, 需要排成两行\n");
+        for (int i = 0; i < 40; i++) {
+            chapter.append("　　");
+            // 长短不一的段落, 包括正好排满一行与多行的段落
+            for (int j = 0; j < (i * 7) % 45 + 1; j++) {
+                chapter.append((char) ('甲' + (i + j) % 10));
+            }
+            chapter.append('\n');
+        }
+        assertLayout(chapter.toString());
+    }
+
+    @Test
+    public void paragraphsFillingWholeLinesMatchBaseline() {
+        // 段落正好排满整行时, 换行与最后一个字在同一行
+        StringBuilder chapter = new StringBuilder("标题\n");
+        for (int i = 0; i < 30; i++) {
+            char[] chars = new char[TEXT_CHARS * (i % 3 + 1)];
+            Arrays.fill(chars, '字');
+            chapter.append(chars).append('\n');
+        }
+        assertLayout(chapter.toString());
+    }
+
+    @Test
+    public void emptyTitleMatchesBaseline() {
+        assertLayout("\n　　正文只有一段.\n");
+    }
+
+    private static void assertLayout(String text) {
+        List<Integer> ends = new ArrayList<>();
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            ends.add(i + 1);
+        }
+        int[] paragraphEnds = new int[ends.size()];
+        for (int i = 0; i < paragraphEnds.length; i++) {
+            paragraphEnds[i] = ends.get(i);
+        }
+        List<Page> pages = new ArrayList<>();
+        PageBreakCache.PageBreaks pageBreaks = new PageBreaker(METRICS, PageBreakerTest::breakLines)
+                .layout(text, paragraphEnds, paragraphEnds.length, new PageBreaker.Listener() {
+                    @Override
+                    public void onPageEnd(PageBreakCache.PageBreaks pageBreaks, int page) {
+                        assertEquals(pages.size(), page);
+                        pages.add(getPage(text, pageBreaks, page));
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return false;
+                    }
+                });
+        for (int i = pages.size(); i < pageBreaks.getPageCount(); i++) {
+            pages.add(getPage(text, pageBreaks, i));
+        }
+        List<Page> expected = baselineLayout(text);
+        assertEquals(expected.toString(), pages.toString());
+    }
+
+    private static Page getPage(String text, PageBreakCache.PageBreaks pageBreaks, int page) {
+        Page result = new Page(pageBreaks.getTitleLines(page));
+        for (int i = pageBreaks.getPageLineStart(page); i < pageBreaks.getPageLineEnd(page); i++) {
+            result.lines.add(text.substring(pageBreaks.getLineStart(i), pageBreaks.getLineEnd(i)));
+        }
+        return result;
+    }
+
+    /**
+     * 按 StaticLayout 的方式断行: 换行属于它所在的行, 以换行结尾时最后有一个空行
+     */
+    private static int[] breakLines(String paragraph, boolean isTitle) {
+        int maxChars = isTitle ? TITLE_CHARS : TEXT_CHARS;
+        List<Integer> lineEnds = new ArrayList<>();
+        int lineChars = 0;
+        for (int i = 0; i < paragraph.length(); i++) {
+            if (paragraph.charAt(i) == '\n') {
+                lineEnds.add(i + 1);
+                lineChars = 0;
+                continue;
+            }
+            if (lineChars == maxChars) {
+                lineEnds.add(i);
+                lineChars = 0;
+            }
+            lineChars++;
+        }
+        lineEnds.add(paragraph.length());
+        int[] result = new int[lineEnds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lineEnds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * 原来的分页: 每行重新排版剩余的文字, 取第一行
+     */
+    private static List<Page> baselineLayout(String text) {
+        List<Page> pages = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        int rHeight = METRICS.pageHeight;
+        int titleLinesCount = 0;
+        int paragraphStart = 0;
+        boolean ifShowTitle = true;
+        while (paragraphStart < text.length()) {
+            int paragraphEnd = text.indexOf('\n', paragraphStart) + 1;
+            String paragraph = text.substring(paragraphStart, paragraphEnd);
+            paragraphStart = paragraphEnd;
+            while (paragraph.length() > 0) {
+                if (ifShowTitle) {
+                    rHeight -= METRICS.titleSize;
+                } else {
+                    rHeight -= METRICS.textSize;
+                }
+                if (rHeight <= 0) {
+                    Page page = new Page(titleLinesCount);
+                    page.lines.addAll(lines);
+                    pages.add(page);
+                    lines.clear();
+                    rHeight = METRICS.pageHeight;
+                    titleLinesCount = 0;
+                    continue;
+                }
+                int wordCount = breakLines(paragraph, ifShowTitle)[0];
+                String subStr = paragraph.substring(0, wordCount);
+                if (!subStr.equals("\n")) {
+                    lines.add(subStr);
+                    if (ifShowTitle) {
+                        titleLinesCount += 1;
+                        rHeight -= METRICS.titleInterval;
+                    } else {
+                        rHeight -= METRICS.textInterval;
+                    }
+                }
+                paragraph = paragraph.substring(wordCount);
+            }
+            if (!ifShowTitle && lines.size() != 0) {
+                rHeight = rHeight - METRICS.textPara + METRICS.textInterval;
+            }
+            if (ifShowTitle) {
+                rHeight = rHeight - METRICS.titlePara + METRICS.titleInterval;
+                ifShowTitle = false;
+            }
+        }
+        if (lines.size() != 0) {
+            Page page = new Page(titleLinesCount);
+            page.lines.addAll(lines);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private static final class Page {
+        private final int titleLines;
+        private final List<String> lines = new ArrayList<>();
+
+        Page(int titleLines) {
+            this.titleLines = titleLines;
+        }
+
+        @Override
+        public String toString() {
+            return titleLines + lines.toString();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.jack.bookshelf.widget.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.jack.bookshelf.bean.BookChapterBean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 TXT 分章
+ * 多段文件在 ForkJoinPool 中并行分章与逐段顺序分章的结果相同, 且与整个文件一次解码后匹配的结果相同
+ * 生成的文件中, 每段的最后一行 (跨过 SEGMENT_SIZE 的行) 与下一段的第一行都是章节名,
+ * 并在段内每隔 4KB 检查点附近放置章节名, 章节名含多字节字符
+ */
+public class TxtChapterSplitterTest {
+    // 默认的 "目录(去空白)" 规则, 段首的章节名依赖补上的换行符满足后顾断言
+    private static final Pattern CHAPTER_PATTERN = Pattern.compile("(?<=[　\\s])(?:(?:内容|文章)?简介|文案|前言|序章|楔子|正文(?!完|结)|终章|后记|尾声|番外"
+            + "|第?\\s{0,4}[\\d零一二两三四五六七八九十百千万壹贰叁肆伍陆柒捌玖拾佰仟]+?\\s{0,4}(?:章|节(?!课)|卷|集(?![合和])|部(?!分)|篇(?!张))).{0,30}$",
+            Pattern.MULTILINE);
+    // 与 TxtChapterSplitter 的检查点间隔相同
+    private static final int CHECKPOINT_SIZE = 4 * 1024;
+    private static final int FILE_SIZE = 6 * TxtChapterSplitter.SEGMENT_SIZE + 12345;
+    private static final String BODY_CHARS = "天地玄黄宇宙洪荒日月盈昃辰宿列张寒来暑往秋收冬藏abc123,.";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void utf8ParallelSplitMatchesSequential() throws Exception {
+        assertSplit(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void gbkParallelSplitMatchesSequential() throws Exception {
+        assertSplit(Charset.forName("GBK"));
+    }
+
+    private void assertSplit(Charset charset) throws Exception {
+        File file = folder.newFile();
+        writeBook(file, charset);
+        List<String> sequential;
+        try (TxtChapterSplitter splitter = new TxtChapterSplitter(file, charset)) {
+            sequential = describe(splitter.split(CHAPTER_PATTERN, null, false));
+        }
+        List<String> parallel;
+        // 并行度取调用所在的线程池, 单核机器上公共线程池不会并行
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (TxtChapterSplitter splitter = new TxtChapterSplitter(file, charset)) {
+            parallel = describe(pool.submit(() -> splitter.split(CHAPTER_PATTERN, null, true)).get());
+        } finally {
+            pool.shutdown();
+        }
+        List<String> expected = splitWholeFile(file, charset);
+        assertTrue(expected.size() > 1000);
+        assertEquals(expected, sequential);
+        assertEquals(expected, parallel);
+    }
+
+    /**
+     * 生成文件, 模拟 TxtChapterSplitter 的分段以便在段的边界放置章节名
+     */
+    private static void writeBook(File file, Charset charset) throws IOException {
+        Random random = new Random(42);
+        int chapter = 1;
+        long bytes = 0;
+        long segmentStart = 0;
+        long nextSegment = TxtChapterSplitter.SEGMENT_SIZE;
+        boolean titleNext = false;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            bytes += write(out, "序言 这是第一章之前的内容\n", charset);
+            while (bytes < FILE_SIZE) {
+                long toSegment = nextSegment - bytes;
+                long toCheckpoint = CHECKPOINT_SIZE - (bytes - segmentStart) % CHECKPOINT_SIZE;
+                String line;
+                if (titleNext || toSegment < 64 || toCheckpoint < 24 || random.nextInt(8) == 0) {
+                    line = "第" + chapter++ + "章 " + body(random, 4 + random.nextInt(12)) + "\n";
+                    titleNext = false;
+                } else {
+                    // 正文行不跨过段的边界, 正文中的 "第n章" 不在行首, 不是章节名
+                    int maxChars = (int) Math.min(200, (toSegment - 32) / 4);
+                    line = "　　" + body(random, 1 + random.nextInt(maxChars)) + "见第" + chapter + "章\n";
+                }
+                bytes += write(out, line, charset);
+                if (bytes > nextSegment) {
+                    // 这一行跨过了段的边界, 是该段的最后一行
+                    segmentStart = bytes;
+                    nextSegment = bytes + TxtChapterSplitter.SEGMENT_SIZE;
+                    titleNext = true;
+                }
+            }
+        }
+    }
+
+    private static int write(OutputStream out, String line, Charset charset) throws IOException {
+        byte[] data = line.getBytes(charset);
+        out.write(data);
+        return data.length;
+    }
+
+    private static String body(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(BODY_CHARS.charAt(random.nextInt(BODY_CHARS.length())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 整个文件一次解码后匹配, 字节位置由章节名之前的文字重新编码得到
+     */
+    private static List<String> splitWholeFile(File file, Charset charset) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), charset);
+        List<BookChapterBean> chapters = new ArrayList<>();
+        Matcher matcher = CHAPTER_PATTERN.matcher(text);
+        int charPos = 0;
+        long bytePos = 0;
+        while (matcher.find()) {
+            bytePos += text.substring(charPos, matcher.start()).getBytes(charset).length;
+            charPos = matcher.start();
+            BookChapterBean chapter = new BookChapterBean();
+            chapter.setDurChapterName(matcher.group());
+            chapter.setStart(bytePos);
+            if (!chapters.isEmpty()) {
+                chapters.get(chapters.size() - 1).setEnd(bytePos);
+            }
+            chapters.add(chapter);
+        }
+        chapters.get(chapters.size() - 1).setEnd(file.length());
+        return describe(chapters);
+    }
+
+    private static List<String> describe(List<BookChapterBean> chapters) {
+        List<String> result = new ArrayList<>();
+        for (BookChapterBean chapter : chapters) {
+            result.add(chapter.getDurChapterName() + "@" + chapter.getStart() + "-" + chapter.getEnd());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,140 @@
+package com.jack.bookshelf.widget.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * TxtPage 与 TxtChar 逐字读取的分配测试
+ * 未选择文字时不计算文字位置; 通过 TxtPage 与 TxtChar 读取逐字数据与文字位置不按字分配对象
+ * 只覆盖这两个类的读取方法, 不包括 PageLoader 与 PageView 中调用它们的绘制代码
+ */
+public class TxtPageAllocationTest {
+    private static final int LINES = 30;
+    private static final int LINE_LENGTH = 20;
+    private static final int ROUNDS = 200;
+    // 允许的测量误差, 远小于按字分配时的数量 (每轮 600 字)
+    private static final long TOLERANCE = 16 * 1024;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private TxtPage page;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        page = new TxtPage(0);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < LINE_LENGTH; i++) {
+            line.append((char) ('一' + i));
+        }
+        for (int i = 0; i < LINES; i++) {
+            page.addLine(line.toString());
+        }
+        float[] widths = new float[LINES * LINE_LENGTH];
+        Arrays.fill(widths, 24f);
+        page.setCharWidths(widths);
+    }
+
+    @Test
+    public void noCharBoundsUntilSelection() {
+        assertTrue(page.hasCharData());
+        assertFalse(page.hasCharBounds());
+        readCharData();
+        assertFalse(page.hasCharBounds());
+    }
+
+    @Test
+    public void readingCharDataDoesNotAllocatePerChar() {
+        // 预热, 排除类加载与 JIT 的分配
+        for (int i = 0; i < ROUNDS; i++) readCharData();
+        long allocated = measure(this::readCharData);
+        assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+    }
+
+    @Test
+    public void readingCharBoundsDoesNotAllocatePerChar() {
+        setBounds();
+        TxtChar first = page.getTxtChar(0);
+        TxtChar last = page.getTxtChar(page.getCharCount() - 1);
+        assertEquals(0, first.getCharLeft());
+        assertEquals(24, first.getCharRight());
+        assertEquals(LINE_LENGTH * 24, last.getCharRight());
+        assertEquals((LINES - 1) * 40 + 30, last.getCharBottom());
+        for (int i = 0; i < ROUNDS; i++) readCharBounds(first, last);
+        long allocated = measure(() -> readCharBounds(first, last));
+        assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+    }
+
+    @Test
+    public void counterDetectsPerCharAllocation() {
+        // 确认计数有效: 每个字分配一个对象时远超允许误差
+        long allocated = measure(() -> {
+            for (int i = 0; i < page.getCharCount(); i++) {
+                sink = new int[]{page.getChar(i), i};
+            }
+        });
+        assertTrue("allocated " + allocated + " bytes", allocated >= TOLERANCE);
+    }
+
+    private static Object sink;
+    private long checksum;
+
+    private long measure(Runnable round) {
+        long id = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(id);
+        for (int i = 0; i < ROUNDS; i++) {
+            round.run();
+        }
+        return threadBean.getThreadAllocatedBytes(id) - before;
+    }
+
+    /**
+     * 逐行逐字读取字符与字宽
+     */
+    private void readCharData() {
+        for (int line = 0; line < page.size(); line++) {
+            String str = page.getLine(line);
+            int start = page.getLineCharStart(line);
+            int end = page.getLineCharEnd(line);
+            for (int i = start; i < end; i++) {
+                checksum += page.getChar(i) + (long) page.getCharWidth(i) + str.charAt(i - start);
+            }
+        }
+    }
+
+    /**
+     * 选择文字时计算的位置
+     */
+    private void setBounds() {
+        for (int line = 0; line < page.size(); line++) {
+            int x = 0;
+            for (int i = page.getLineCharStart(line); i < page.getLineCharEnd(line); i++) {
+                int right = x + (int) page.getCharWidth(i);
+                page.setCharBounds(i, x, line * 40, right, line * 40 + 30);
+                x = right;
+            }
+        }
+    }
+
+    /**
+     * 逐字读取文字位置, 以及通过 TxtChar 读取选择起止字的位置
+     */
+    private void readCharBounds(TxtChar first, TxtChar last) {
+        for (int i = 0; i < page.getCharCount(); i++) {
+            checksum += page.getCharLeft(i) + page.getCharTop(i) + page.getCharRight(i) + page.getCharBottom(i);
+        }
+        checksum += first.getCharLeft() + first.getCharTop() + last.getCharRight() + last.getCharBottom();
+    }
+}